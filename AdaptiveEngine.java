@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class AdaptiveEngine - Lets the entities act with a sequential or a parallel engine, whichever has recently been
+ * faster. On small fields the parallel engine loses to the sequential one, as scheduling the threads costs more than
+ * the work it spreads, so the parallel engine is only considered while there are enough live entities.
+ * The engine measures the time each step takes per live entity and keeps a moving average for each mode. The mode
+ * that is not in use is measured by running it for a few steps now and then (a probe). The engine only switches if
+ * the other mode has been clearly faster and the current mode has been in use for a while, so that it does not flap
+ * between the two. Every switch and its reason is logged.
+ * The two engines do not simulate a step the same way, and which mode a step is simulated in depends on how long
+ * earlier steps took, so runs with this engine are not reproducible. It is therefore only used when asked for, see
+ * Simulator.useAdaptiveEngine, and the simulator uses a fixed engine by default.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class AdaptiveEngine implements StepEngine {
+
+    private static final int PARALLEL_MIN_ENTITIES = 20000; // The parallel engine is only tried with this many entities.
+    private static final int SEQUENTIAL_MAX_ENTITIES = 10000; // With fewer entities the sequential engine is always used.
+    private static final double SWITCH_MARGIN = 0.8; // The other mode must take at most this share of the time to win.
+    private static final int MIN_STEPS_IN_MODE = 20; // The number of steps a mode is kept at least after switching.
+    private static final int PROBE_INTERVAL = 100; // The number of steps between two probes of the other mode.
+    private static final int PROBE_STEPS = 4; // The number of steps of a probe. The first one is not measured.
+    private static final double SMOOTHING = 0.25; // The weight of the latest step in the moving averages.
+
+    private final StepEngine sequential;
+    private final StepEngine parallel;
+    private boolean parallelMode; // The mode steps are simulated in when not probing.
+    private boolean lastStepParallel; // The mode of the latest step.
+    private final double[] nanosPerEntity = {Double.NaN, Double.NaN}; // The average cost of each mode, sequential first.
+    private int stepsInMode; // The number of steps since the last switch or probe.
+    private int probeStep; // The step of the current probe, or 0 if there is none.
+    private String lastSwitch = "none"; // Why the engine has last switched.
+
+    /**
+     * Create an engine that chooses between the given engines.
+     * @param sequential The engine for small fields.
+     * @param parallel The engine for large fields.
+     * @param startParallel If the first step is simulated with the parallel engine.
+     */
+    public AdaptiveEngine(StepEngine sequential, StepEngine parallel, boolean startParallel)
+    {
+        this.sequential = sequential;
+        this.parallel = parallel;
+        parallelMode = startParallel;
+        lastStepParallel = startParallel;
+    }
+
+    /**
+     * Create a copy of the given engine, e.g. for a fork of a simulation.
+     * @param parent The engine to copy.
+     */
+    private AdaptiveEngine(AdaptiveEngine parent)
+    {
+        sequential = parent.sequential.fork();
+        parallel = parent.parallel.fork();
+        parallelMode = parent.parallelMode;
+        lastStepParallel = parent.lastStepParallel;
+        nanosPerEntity[0] = parent.nanosPerEntity[0];
+        nanosPerEntity[1] = parent.nanosPerEntity[1];
+        stepsInMode = parent.stepsInMode;
+        probeStep = parent.probeStep;
+        lastSwitch = parent.lastSwitch;
+    }
+
+    /**
+     * Copy this engine with its mode and measurements, as the mode of the latest step decides the order the next
+     * step expects the entities in.
+     * @return The copy.
+     */
+    @Override
+    public AdaptiveEngine fork()
+    {
+        return new AdaptiveEngine(this);
+    }
+
+    /**
+     * Let every entity act once with the engine of the current mode and measure how long it takes.
+     * @param entities The live entities, in the order they were created, or as returned by the previous step.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The entities alive after the step, as returned by the engine of the mode.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        int count = entities.size();
+        boolean useParallel = chooseMode(count);
+        if (useParallel != lastStepParallel) {
+            // The engines return their entities in different orders, but expect them in the order they were created.
+            entities = new ArrayList<>(entities);
+            entities.sort(Comparator.comparingLong(Entity::getOrder));
+        }
+        long start = System.nanoTime();
+        List<Entity> result = (useParallel ? parallel : sequential).step(entities, field, step, currentTime);
+        long nanos = System.nanoTime() - start;
+
+        boolean warmUp = probeStep == 1 || useParallel != lastStepParallel; // Switching has a cost of its own.
+        if (!warmUp && count > 0) {
+            int mode = useParallel ? 1 : 0;
+            double cost = (double) nanos / count;
+            nanosPerEntity[mode] = Double.isNaN(nanosPerEntity[mode]) ? cost : SMOOTHING * cost + (1 - SMOOTHING) * nanosPerEntity[mode];
+        }
+        lastStepParallel = useParallel;
+        if (probeStep == PROBE_STEPS) {
+            probeStep = 0;
+            compareModes();
+        }
+        return result;
+    }
+
+    /**
+     * Decide which mode the next step is simulated in, starting or continuing a probe if it is time for one.
+     * @param count The number of live entities.
+     * @return True if the step is simulated with the parallel engine.
+     */
+    private boolean chooseMode(int count)
+    {
+        if (count < SEQUENTIAL_MAX_ENTITIES) {
+            probeStep = 0;
+            if (parallelMode) {
+                switchMode(false, String.format("only %d live entities", count));
+            }
+            return false;
+        }
+        if (probeStep > 0) {
+            probeStep++;
+            return !parallelMode;
+        }
+        stepsInMode++;
+        boolean otherWorthTrying = parallelMode || count >= PARALLEL_MIN_ENTITIES;
+        if (otherWorthTrying && stepsInMode >= (Double.isNaN(nanosPerEntity[parallelMode ? 0 : 1]) ? MIN_STEPS_IN_MODE : PROBE_INTERVAL)) {
+            probeStep = 1;
+            return !parallelMode;
+        }
+        return parallelMode;
+    }
+
+    /**
+     * Switch to the other mode after a probe if it has been clearly faster.
+     */
+    private void compareModes()
+    {
+        double current = nanosPerEntity[parallelMode ? 1 : 0];
+        double other = nanosPerEntity[parallelMode ? 0 : 1];
+        stepsInMode = 0;
+        if (other < SWITCH_MARGIN * current) {
+            switchMode(!parallelMode, String.format("%.0f ns per entity against %.0f ns", other, current));
+        }
+    }
+
+    /**
+     * Change the mode and log why.
+     * @param toParallel If the parallel engine is used from now on.
+     * @param reason Why the mode changes.
+     */
+    private void switchMode(boolean toParallel, String reason)
+    {
+        parallelMode = toParallel;
+        stepsInMode = 0;
+        lastSwitch = getMode() + ": " + reason;
+        System.out.println("Switched to " + lastSwitch);
+    }
+
+    /**
+     * Return the mode steps are simulated in.
+     * @return "parallel" or "sequential".
+     */
+    @Override
+    public String getMode()
+    {
+        return parallelMode ? "parallel" : "sequential";
+    }
+
+    /**
+     * Return statistics about the latest step.
+     * @return The statistics of the engine of the latest step, the average cost of each mode and the last switch.
+     */
+    @Override
+    public String getStatistics()
+    {
+        return String.format("Adaptive engine (%s): %.0f ns per entity sequential, %.0f ns parallel, last switch %s. %s",
+                getMode(), nanosPerEntity[0], nanosPerEntity[1], lastSwitch,
+                (lastStepParallel ? parallel : sequential).getStatistics());
+    }
+}
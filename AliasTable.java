@@ -0,0 +1,88 @@
+import java.util.Random;
+
+/**
+ * Class AliasTable - Draws one of several outcomes with given probabilities from a single random number, using the
+ * alias method. The table is built once in linear time; every draw then picks a column uniformly and either keeps the
+ * outcome of that column or takes its alias, so its cost does not depend on the number of outcomes.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class AliasTable {
+
+    private final double[] keep; // The probability of keeping the outcome of a column instead of its alias.
+    private final int[] alias; // The outcome a column falls back to.
+
+    /**
+     * Build the table.
+     * @param weights The weight of each outcome. They need not add up to one, but must not be negative and at least
+     * one of them must be positive.
+     */
+    public AliasTable(double[] weights)
+    {
+        int n = weights.length;
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight: " + weight);
+            }
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("No outcome has a positive weight");
+        }
+        keep = new double[n];
+        alias = new int[n];
+
+        // Scale the weights so that a column that is exactly full has 1, then pair the columns that are too small
+        // with the columns that are too large (Vose's method).
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            keep[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1; // The large column fills up the small one.
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // Whatever is left is full, up to rounding errors.
+        while (largeCount > 0) {
+            int full = large[--largeCount];
+            keep[full] = 1;
+            alias[full] = full;
+        }
+        while (smallCount > 0) {
+            int full = small[--smallCount];
+            keep[full] = 1;
+            alias[full] = full;
+        }
+    }
+
+    /**
+     * Draw an outcome.
+     * @param rand The random number generator to draw a single double from.
+     * @return The index of the outcome.
+     */
+    public int sample(Random rand)
+    {
+        double x = rand.nextDouble() * keep.length;
+        int column = Math.min((int) x, keep.length - 1); // In case the product rounds up to the length.
+        return x - column < keep[column] ? column : alias[column];
+    }
+}
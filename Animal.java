@@ -1,3 +1,6 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -141,13 +144,8 @@ public abstract class Animal extends Entity
         public double getBadEnvironmentBreedingProbability() { return badEnvironmentBreedingProbability; }
     }
 
-    protected boolean sex; // The sex of the animal. True is male.
-    protected boolean availableForCoitus; // If the animal is ready to produce offspring
-    protected double energyLevel; // The energy an animal currently has. // We should make a max energy
-
-    // Mutation
-    protected double size; // The size of the animal. Impacts competition and energy consumption.
-    protected double scent; // The scent of the animal. Impacts how far it can look for food and energy consumption.
+    // The sex, the availability for coitus, the energy level, the size and the scent of an animal are kept in the
+    // entity store of its field, see EntityStore.
     private final static double MUTATION_PROBABILITY = 0.01;
 
     /**
@@ -157,25 +155,209 @@ public abstract class Animal extends Entity
      * @param location The location within the field.
      */
     public Animal(Field field, Location location)
+    {
+        this(field, location, rand.nextBoolean());
+    }
+
+    /**
+     * Create a new animal of the given sex at location in field.
+     *
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param sex The sex of the animal. True is male.
+     */
+    public Animal(Field field, Location location, boolean sex)
     {
         super(field, location);
-        this.sex = rand.nextBoolean();
-        this.availableForCoitus = false;
+        setSex(sex);
+        setAvailableForCoitus(false);
+    }
+
+    /**
+     * Reset a dead animal as the constructor does.
+     * @param field The field to put the animal in.
+     * @param location The location of the animal.
+     */
+    @Override
+    protected void revive(Field field, Location location)
+    {
+        super.revive(field, location);
+        setSex(rand.nextBoolean());
+        setAvailableForCoitus(false);
+    }
+
+    /**
+     * Set the state of a newborn, which inherits the size and scent of its parent with a mutation. Used when it is
+     * reused instead of created, see createAnimal.
+     * @param size The size of the parent.
+     * @param scent The scent of the parent.
+     */
+    private void initYoung(double size, double scent)
+    {
+        setAge(0);
+        setEnergyLevel(getMaxEnergy());
+        setSize(getMutationValue(size));
+        setScent(getMutationValue(scent));
+        setCurrentBreedingProbability(getBreedingProbability());
+    }
+
+    /**
+     * Return the sex of the animal.
+     * @return True if the animal is male.
+     */
+    protected boolean getSex()
+    {
+        return getState().male[getSlot()];
+    }
+
+    /**
+     * Set the sex of the animal.
+     * @param sex True if the animal is male.
+     */
+    private void setSex(boolean sex)
+    {
+        getState().male[getSlot()] = sex;
+    }
+
+    /**
+     * Return if the animal is ready to produce offspring.
+     * @return If the animal is available for coitus.
+     */
+    protected boolean isAvailableForCoitus()
+    {
+        return getState().available[getSlot()];
+    }
+
+    /**
+     * Set if the animal is ready to produce offspring.
+     * @param available If the animal is available for coitus.
+     */
+    protected void setAvailableForCoitus(boolean available)
+    {
+        getState().available[getSlot()] = available;
     }
 
     /**
-     * Calls the act method in entity. It also increments either the hunger or the energy level of the animal.
-     * @param newEntities A list to receive newly born animals.
+     * Return the energy the animal currently has.
+     * @return The energy level.
+     */
+    protected double getEnergyLevel()
+    {
+        catchUp();
+        return getState().energy[getSlot()];
+    }
+
+    /**
+     * Set the energy the animal currently has.
+     * @param energyLevel The energy level.
+     */
+    protected void setEnergyLevel(double energyLevel)
+    {
+        catchUp();
+        getState().energy[getSlot()] = energyLevel;
+    }
+
+    /**
+     * Returns the size of the animal. Impacts competition and energy consumption.
+     * @return the size of the animal
+     */
+    protected double getSize()
+    {
+        return getState().size[getSlot()];
+    }
+
+    /**
+     * Set the size of the animal.
+     * @param size The size.
+     */
+    protected void setSize(double size)
+    {
+        getState().size[getSlot()] = size;
+    }
+
+    /**
+     * Returns the scent of the animal. Impacts how far it can look for food and energy consumption.
+     * @return the scent of the animal
+     */
+    protected double getScent()
+    {
+        return getState().scent[getSlot()];
+    }
+
+    /**
+     * Set the scent of the animal.
+     * @param scent The scent.
+     */
+    protected void setScent(double scent)
+    {
+        getState().scent[getSlot()] = scent;
+    }
+
+    /**
+     * Update the state of this animal at the start of its act. It also increments either the hunger or the energy
+     * level of the animal.
      * @param currentTime the current time of the day.
      */
     @Override
-    public void act(List<Entity> newEntities, int currentTime) {
-        super.act(newEntities, currentTime);
+    protected void updateState(int currentTime)
+    {
+        super.updateState(currentTime);
         if(isAwake(currentTime)) {
             incrementHunger();
         }
         else
-            energyLevel++; // Animal is sleeping and regathering energy
+            setEnergyLevel(getEnergyLevel() + 1); // Animal is sleeping and regathering energy
+    }
+
+    /**
+     * Decide whom this animal wants to mate with and where it wants to move.
+     * @param intent The intent to fill in.
+     * @param currentTime the current time of the day.
+     */
+    @Override
+    protected void plan(Intent intent, int currentTime)
+    {
+        if (isAwake(currentTime) && isAlive()) {
+            if (getSex()) {
+                intent.setMates(findMates((int) getScent()));
+                intent.setBirths(getField().getFreeAdjacentLocations(getLocation()), breed());
+            }
+            planMove(intent);
+        }
+    }
+
+    /**
+     * Decide where this animal wants to move: towards a source of food if there is one, otherwise to a free
+     * adjacent location.
+     * @param intent The intent to fill in.
+     */
+    protected void planMove(Intent intent)
+    {
+        planHunt(intent);
+        intent.setMoves(getField().getFreeAdjacentLocations(getLocation()));
+    }
+
+    /**
+     * Decide which food source this animal wants to eat, if there is one in reach.
+     * @param intent The intent to fill in.
+     */
+    protected void planHunt(Intent intent)
+    {
+        Entity prey = findPrey();
+        if (prey != null) {
+            Location where = prey.getLocation();
+            intent.setPrey(prey, new Location(where.getRow(), where.getCol(), getLocation().getLevel()));
+        }
+    }
+
+    /**
+     * Mate with one of the given animals if this animal is able to.
+     * @param mates The animals met while looking for a mate, see findMates.
+     * @return If a mate was found and offspring should be born.
+     */
+    protected boolean mate(List<Animal> mates)
+    {
+        return getSex() && meet(mates);
     }
 
     /**
@@ -190,14 +372,25 @@ public abstract class Animal extends Entity
      */
     protected abstract int getMaxAge();
 
+    /**
+     * Return how far this animal can look, move or give birth within a single act. It searches for food and mates
+     * as far as its scent reaches.
+     * @return The largest distance in rows or columns.
+     */
+    @Override
+    protected int getReach()
+    {
+        return Math.max(super.getReach(), (int) Math.round(getScent()));
+    }
+
     /**
      * Increment the hunger of the animal.
      * Relates to the size and scent of the animal. This is the disadvantage the counterpart to size and scent.
      */
     protected void incrementHunger()
     {
-        energyLevel -= Math.round((size + scent));
-        if (energyLevel <= 0)
+        setEnergyLevel(getEnergyLevel() - Math.round((getSize() + getScent())));
+        if (getEnergyLevel() <= 0)
         {
             setDead();
         }
@@ -211,25 +404,44 @@ public abstract class Animal extends Entity
      * @return whether an available mate in the given radius was found.
      */
     public boolean foundMate(int radius) {
-        boolean found = false;
+        return meet(findMates(radius));
+    }
+
+    /**
+     * Return the animals of the same species in the given radius, in random order.
+     * @param radius the radius at which the animal can look for a mate.
+     * @return The potential mates.
+     */
+    protected List<Animal> findMates(int radius)
+    {
+        List<Animal> mates = new ArrayList<>();
         Field field = getField();
-        List<Location> nearby = field.nearbyLocations(getLocation(), radius);
-        Iterator<Location> it = nearby.iterator();
-        while(it.hasNext() && !found) {
-            Location where = it.next();
+        for (Location where : field.nearbyLocations(getLocation(), radius)) {
             Object animal = field.getEntityAt(where);
-
             if(animal != null && animal.getClass() == this.getClass()) {
-                Animal mate = (Animal) animal;
-                if(mate.availableForCoitus) {
-                    found = true;
-                    mate.availableForCoitus = false;
-                } else {
-                    mate.availableForCoitus = true;
-                }
+                mates.add((Animal) animal);
+            }
+        }
+        return mates;
+    }
+
+    /**
+     * Meet the given animals one after another until one of them is available. Every animal met that is not
+     * available becomes available for the next time.
+     * @param mates The animals to meet.
+     * @return whether an available mate was found.
+     */
+    protected boolean meet(List<Animal> mates)
+    {
+        for (Animal mate : mates) {
+            if(mate.isAvailableForCoitus()) {
+                mate.setAvailableForCoitus(false);
+                return true;
+            } else {
+                mate.setAvailableForCoitus(true);
             }
         }
-        return found;
+        return false;
     }
 
     /**
@@ -238,40 +450,61 @@ public abstract class Animal extends Entity
      * @return Where food was found, or null if it wasn't.
      */
     protected Location findFood()
+    {
+        Entity prey = findPrey();
+        if (prey != null) {
+            Location where = prey.getLocation();
+            eat(prey);
+            return new Location(where.getRow(), where.getCol(), this.getLocation().getLevel()); // The location this animal will move to. The level might differ
+        }
+        return null;
+    }
+
+    /**
+     * Look for a food source this animal can eat in adjacent locations, without eating it.
+     * @return The first food source found, or null if there is none.
+     */
+    protected Entity findPrey()
     {
         Field field = getField();
-        List<Location> adjacent = new ArrayList<>(field.adjacentLocations(getLocation(), foodChain.getFoodSourceLevels(this.getClass()), (int) Math.round(scent))); //Get the adjacent locations of the levels the current animal eats at and with the scent range this animal has. (E.g. Gazelles look for food at level 0 and 1)
-        ArrayList<Class> foodSources = foodChain.getFoodSources(this.getClass()); // Get the entities this animal eats.
+        List<Location> adjacent = field.adjacentLocations(getLocation(), SpeciesRegistry.getPreyLevels(getSpeciesOrdinal()), (int) Math.round(getScent())); //Get the adjacent locations of the levels the current animal eats at and with the scent range this animal has. (E.g. Gazelles look for food at level 0 and 1)
 
         Iterator<Location> it = adjacent.iterator();
         while(it.hasNext()) {
             Location where = it.next();
             Entity entity = field.getEntityAt(where);
 
-            if (canEat(entity, foodSources)) {
-                energyLevel += entity.getFoodValue();
-                entity.setDead();
-                return new Location(where.getRow(), where.getCol(), this.getLocation().getLevel()); // The location this animal will move to. The level might differ
+            if (canEat(entity)) {
+                return entity;
             }
 
         }
         return null;
     }
 
+    /**
+     * Eat the given entity and gain its energy.
+     * @param prey The entity eaten.
+     */
+    protected void eat(Entity prey)
+    {
+        setEnergyLevel(getEnergyLevel() + prey.getFoodValue());
+        prey.setDead();
+    }
+
     /**
      * The conditions that must be fulfilled for one entity eating another entity.
-     * @param entity The eating entity
-     * @param foodSources The eating entities food sources.
+     * @param entity The entity that might be eaten.
      * @return If this entity can eat the other entity.
      */
-    private boolean canEat(Entity entity, ArrayList<Class> foodSources)
+    private boolean canEat(Entity entity)
     {
         return entity != null
-                && foodSources.contains(entity.getClass()) // Check if the found entity can be eaten by the entity searching for food
+                && SpeciesRegistry.isPrey(getSpeciesOrdinal(), entity.getSpeciesOrdinal()) // Check if the found entity can be eaten by the entity searching for food
                 && entity.isAlive()  // Check if the found entity is still alive (has not been eaten by another entity already)
                 && entity.isEatable() // and if it is eatable. E.g. Trees are only eatable when young.
                 && field.isFree(location) // Check if there is no other entity occupying this location.
-                && getMaxEnergy() > energyLevel + entity.getFoodValue() // Eating this entity would not exceed the max energy
+                && getMaxEnergy() > getEnergyLevel() + entity.getFoodValue() // Eating this entity would not exceed the max energy
                 && ((entity instanceof Animal && wonFight(this, (Animal) entity)) // The searching animal found another animal (not a plant) and was able to catch it.
                 || entity instanceof Plant); // Or the found entity was a plant
     }
@@ -288,15 +521,6 @@ public abstract class Animal extends Entity
         return prey.getSize() < predator.getSize() * rand.nextDouble();
     }
 
-    /**
-     * Returns the size of the animal object
-     * @return the size of the animal
-     */
-    private double getSize()
-    {
-        return size;
-    }
-
     /**
      * Slightly increases or decreases a given value by a certain probability.
      * @param value The value to be changed
@@ -327,32 +551,69 @@ public abstract class Animal extends Entity
         int births = breed();
         for(int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
-            createAnimal(field, loc, size, scent, newEntities);
+            newEntities.add(createAnimal(field, loc, getSize(), getScent()));
         }
     }
 
     /**
-     * Create a new animal
+     * Create an offspring of this animal, which inherits its size and scent.
+     * @param location The location of the offspring.
+     * @return The offspring.
+     */
+    @Override
+    protected Entity createYoung(Location location)
+    {
+        return createAnimal(getField(), location, getSize(), getScent());
+    }
+
+    /**
+     * Write the state of this animal to the packed state of a history frame.
+     * @param out The stream to write to.
+     * @throws IOException If the stream can not be written to.
+     */
+    @Override
+    protected void writeState(DataOutputStream out) throws IOException
+    {
+        super.writeState(out);
+        out.writeByte((getSex() ? 1 : 0) | (isAvailableForCoitus() ? 2 : 0));
+        out.writeShort((int) getEnergyLevel()); // The energy only ever changes by whole numbers.
+        out.writeDouble(getSize());
+        out.writeDouble(getScent());
+    }
+
+    /**
+     * Read the state of this animal from the packed state of a history frame.
+     * @param in The stream to read from.
+     * @throws IOException If the stream can not be read from.
+     */
+    @Override
+    protected void readState(DataInputStream in) throws IOException
+    {
+        super.readState(in);
+        int flags = in.readByte();
+        setSex((flags & 1) != 0);
+        setAvailableForCoitus((flags & 2) != 0);
+        setEnergyLevel(in.readShort());
+        setSize(in.readDouble());
+        setScent(in.readDouble());
+    }
+
+    /**
+     * Create a new animal of the species of this one, reusing a dead one if there is any.
      * @param field The field to put the entity in
      * @param loc The location of the new entity
      * @param size The size passed on from the parent.
      * @param scent The scent passed on from the parent
-     * @param newEntities A list to add the newly created animal to.
-     */
-    private void createAnimal(Field field, Location loc, double size, double scent, List<Entity> newEntities)
-    {
-        Entity young;
-        if (this.getClass() == Frog.class)
-            young = new Frog(field, loc, size, scent);
-        else if (this.getClass() == Gazelle.class)
-            young = new Gazelle(field, loc, size, scent);
-        else if (this.getClass() == Lion.class)
-            young = new Lion(field, loc, size, scent);
-        else if (this.getClass() == Eagle.class)
-            young = new Eagle(field, loc, size, scent);
-        else
-            young = new Snake(field, loc, size, scent);
-        newEntities.add(young);
+     * @return The new animal.
+     */
+    private Entity createAnimal(Field field, Location loc, double size, double scent)
+    {
+        Animal reused = (Animal) reuse(field, loc);
+        if (reused != null) {
+            reused.initYoung(size, scent);
+            return reused;
+        }
+        return SpeciesRegistry.createYoung(getSpeciesOrdinal(), field, loc, size, scent);
     }
 }
 
@@ -2,6 +2,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
  * Class Control Panel - A control panel that allows for the manipulation of the simulation. It allows for stopping
@@ -10,7 +12,7 @@ import java.awt.event.ActionListener;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public class ControlPanel extends JFrame implements ActionListener{
+public class ControlPanel extends JFrame implements ActionListener, ChangeListener {
 
     private static Simulator simulator;
     private static int steps;
@@ -39,6 +41,10 @@ public class ControlPanel extends JFrame implements ActionListener{
     private final JTextField enteredSpeed;
     private final JButton submitSpeed;
     private final JLabel feedbackMessage;
+    private final JLabel historyStatistics;
+    private final JLabel engineStatistics;
+    private final JSlider timeline;
+    private boolean updatingTimeline; // If the timeline is moved by the simulation rather than by the user.
 
     private final JButton showMapButton;
     private final JButton savannaDataButton;
@@ -60,7 +66,7 @@ public class ControlPanel extends JFrame implements ActionListener{
 
         JFrame frame = new JFrame();
         frame.setTitle("Control Panel");
-        frame.setSize(600, 250);
+        frame.setSize(600, 270);
         frame.setLocation(200, 500);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setResizable(false);
@@ -126,6 +132,20 @@ public class ControlPanel extends JFrame implements ActionListener{
         feedbackMessage.setVisible(true);
         panel.add(feedbackMessage);
 
+        timeline = new JSlider(0, 0, 0);
+        timeline.setBounds(20, 50, 560, 30);
+        timeline.addChangeListener(this);
+        timeline.setVisible(false);
+        panel.add(timeline);
+
+        historyStatistics = new JLabel("", JLabel.LEFT);
+        historyStatistics.setBounds(20, 190, 560, 20);
+        panel.add(historyStatistics);
+
+        engineStatistics = new JLabel("", JLabel.LEFT);
+        engineStatistics.setBounds(20, 210, 560, 20);
+        panel.add(engineStatistics);
+
         frame.setVisible(true);
 
     }
@@ -146,8 +166,8 @@ public class ControlPanel extends JFrame implements ActionListener{
                     int temp;
                     try {
                         temp = Integer.parseInt(enteredSpeed.getText());
-                        for(int i=0; i<temp; i++) {
-                            simulator.simulateOneStep();
+                        if(temp > 0) {
+                            simulator.seekTo(simulator.getStep() + temp); // Only the final step is displayed.
                         }
                     } catch (Exception a) {
                         simulator.simulateOneStep();
@@ -166,6 +186,7 @@ public class ControlPanel extends JFrame implements ActionListener{
                 pauseButton.setText("Resume");
                 nextButton.setVisible(true);
                 previousButton.setVisible(true);
+                timeline.setVisible(true);
                 pauseButton.setVisible(false);
                 enteredSpeed.setVisible(true);
                 submitSpeed.setVisible(true);
@@ -178,10 +199,8 @@ public class ControlPanel extends JFrame implements ActionListener{
                         int enteredAmount;
                         try {
                             enteredAmount = Integer.parseInt(enteredSpeed.getText());
-                            int index = 0;
-                            while(index < enteredAmount && simulator.getStep() != 0) {
-                                simulator.loadPreviousStep();
-                                index++;
+                            if(enteredAmount > 0) {
+                                simulator.seekTo(simulator.getStep() - enteredAmount); // Stops at the initial step.
                             }
                         } catch (Exception a) {
                             displayMessage("Please enter a positive integer!", Color.RED);
@@ -235,6 +254,38 @@ public class ControlPanel extends JFrame implements ActionListener{
         }
     }
 
+    /**
+     * This method is called when the timeline is moved. While the user drags it, the steps are only shown;
+     * once it is released the simulation jumps to the selected step.
+     * @param e Event created when the timeline is moved.
+     */
+    @Override
+    public void stateChanged(ChangeEvent e) {
+        if(updatingTimeline) {
+            return;
+        }
+        paused = true;
+        if(timeline.getValueIsAdjusting()) {
+            simulator.scrubTo(timeline.getValue());
+        } else {
+            simulator.seekTo(timeline.getValue());
+        }
+    }
+
+    /**
+     * Move the timeline to the current step of the simulation.
+     * @param step The current step.
+     * @param firstStep The earliest step that can be jumped to.
+     * @param latestStep The latest simulated step.
+     */
+    public void updateTimeline(int step, int firstStep, int latestStep) {
+        updatingTimeline = true;
+        timeline.setMinimum(firstStep);
+        timeline.setMaximum(latestStep);
+        timeline.setValue(step);
+        updatingTimeline = false;
+    }
+
     /**
      * Return if the simulation has been paused.
      * @return If the simulation has been paused
@@ -243,6 +294,22 @@ public class ControlPanel extends JFrame implements ActionListener{
         return paused;
     }
 
+    /**
+     * Displays the statistics of the history of the simulation, e.g. after a step has been restored from it.
+     * @param statistics The statistics to display.
+     */
+    public void showHistoryStatistics(String statistics) {
+        historyStatistics.setText(statistics);
+    }
+
+    /**
+     * Displays the statistics of the engine that simulates the steps, e.g. how often entities got into conflicts.
+     * @param statistics The statistics to display.
+     */
+    public void showEngineStatistics(String statistics) {
+        engineStatistics.setText(statistics);
+    }
+
     /**
      * Displays a feedback message on the control panel.
      * @param message the message that is to be displayed.
@@ -6,7 +6,7 @@ import java.util.List;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public class Eagle extends Animal {
+public final class Eagle extends Animal {
 
     private static final int MAX_ENERGY = AnimalStats.EAGLE.getMaxEnergy();
     private static final int MAX_AGE = AnimalStats.EAGLE.getMaxAge();
@@ -27,11 +27,24 @@ public class Eagle extends Animal {
      */
     public Eagle(Field field, Location location, double size, double scent) {
         super(field, location);
-        age = 0;
-        energyLevel = MAX_ENERGY;
-        this.size = getMutationValue(size);
-        this.scent = getMutationValue(scent);
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(0);
+        setEnergyLevel(MAX_ENERGY);
+        setSize(getMutationValue(size));
+        setScent(getMutationValue(scent));
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
+    }
+
+    /**
+     * Create a eagle of the given sex without drawing from the randomizer, e.g. when it is restored from a history
+     * frame. The rest of its state is expected to be set afterwards.
+     * @param field    The field currently occupied.
+     * @param location The location within the field.
+     * @param sex      The sex of the eagle. True is male.
+     */
+    public Eagle(Field field, Location location, boolean sex)
+    {
+        super(field, location, sex);
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -43,12 +56,12 @@ public class Eagle extends Animal {
     {
         super(field, location);
 
-        age = rand.nextInt(MAX_AGE);
-        energyLevel = rand.nextInt(MAX_ENERGY);
-        availableForCoitus = rand.nextBoolean();
-        size = AnimalStats.EAGLE.getDefaultSize();
-        scent = AnimalStats.EAGLE.getDefaultScent();
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(rand.nextInt(MAX_AGE));
+        setEnergyLevel(rand.nextInt(MAX_ENERGY));
+        setAvailableForCoitus(rand.nextBoolean());
+        setSize(AnimalStats.EAGLE.getDefaultSize());
+        setScent(AnimalStats.EAGLE.getDefaultScent());
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -61,14 +74,14 @@ public class Eagle extends Animal {
         super.act(newEntities, currentTime);
         if (isAwake(currentTime)) {
             if (isAlive()) {
-                if(availableForCoitus) {
-                    if (sex && foundMate((int) scent)) {
+                if(isAvailableForCoitus()) {
+                    if (getSex() && foundMate((int) getScent())) {
                         giveBirth(newEntities);
-                        availableForCoitus = false;
+                        setAvailableForCoitus(false);
                     }
                 }
                 else {
-                    availableForCoitus = true;
+                    setAvailableForCoitus(true);
                 }
                 // Move towards a source of food if found.
                 Location newLocation = findFood();
@@ -90,12 +103,55 @@ public class Eagle extends Animal {
 
 
     /**
-     * Updates the eagle's nutrition value, depending on its age.
+     * Decide where this eagle wants to fly: towards a source of food if there is one, otherwise to a free location
+     * within its moving radius.
+     * @param intent The intent to fill in.
+     */
+    @Override
+    protected void planMove(Intent intent)
+    {
+        planHunt(intent);
+        intent.setMoves(getField().getFreeNearbyLocations(getLocation(), MOVING_RADIUS));
+    }
+
+    /**
+     * Mate with one of the given eagles. Eagles are only available for mating every other time they act.
+     * @param mates The eagles met while looking for a mate.
+     * @return If a mate was found and offspring should be born.
+     */
+    @Override
+    protected boolean mate(List<Animal> mates)
+    {
+        if (isAvailableForCoitus()) {
+            if (getSex() && meet(mates)) {
+                setAvailableForCoitus(false);
+                return true;
+            }
+            return false;
+        }
+        setAvailableForCoitus(true);
+        return false;
+    }
+
+    /**
+     * Return how far this eagle can look or fly within a single act.
+     * @return The largest distance in rows or columns.
+     */
+    @Override
+    protected int getReach()
+    {
+        return Math.max(super.getReach(), MOVING_RADIUS);
+    }
+
+    /**
+     * Returns the eagle's nutrition value at the given age.
+     * @param age The age.
+     * @return The food value.
      */
     @Override
-    protected void updateFoodValue()
+    protected int getFoodValueAt(int age)
     {
-        foodValue = (int) Math.round(2*Math.log(Math.pow(age, 3))); //log grows fast in the beginning and slower at later stages
+        return (int) Math.round(2*Math.log(Math.pow(age, 3))); //log grows fast in the beginning and slower at later stages
     }
 
     /**
@@ -1,3 +1,6 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.List;
 import java.util.Random;
 
@@ -8,19 +11,19 @@ import java.util.Random;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public abstract class Entity {
+public abstract class Entity implements Cloneable {
 
     protected boolean alive; // Whether the entity is alive or not.
     protected Field field;   // The entity's field.
     protected Location location; // The entity's position in the field.
-    protected double currentBreedingProbability; // The current breeding probability of the entity. Changes if it is not in its preferred environment.
+    private final int species; // The ordinal of the species of the entity, see SpeciesRegistry.
 
-    protected static final Random rand = Randomizer.getRandom(); // A randomizer shared by all entities, used for propagating.
-    protected int foodValue; // How much energy another entity receives by eating this entity.
-    protected int age; // The entities age
+    // The state that changes at every step, e.g. the age, is kept in the entity store of the field, see EntityStore.
+    private int id; // The id of the entity in the store.
+    private EntityStore.Page state; // The page of the store that contains the state of the entity.
+    private int slot; // The index of the state of the entity in its page.
 
-    protected static final FoodChain foodChain = new FoodChain(); // Stores the food sources of each entity, if it has any.
-    private static EntityEnvironmentMapper entityEnvironmentMapper; // A map of the preferred environments of the each entity type.
+    protected static final Random rand = Randomizer.getRandom(); // A randomizer shared by all entities, used for propagating.
 
 
     /**
@@ -33,8 +36,127 @@ public abstract class Entity {
     {
         alive = true;
         this.field = field;
+        species = SpeciesRegistry.ordinalOf(getClass());
+        allocateState(field);
+        setLocation(location);
+    }
+
+    /**
+     * Return the ordinal of the species of this entity, which indexes everything the SpeciesRegistry knows about it.
+     * @return The ordinal.
+     */
+    protected int getSpeciesOrdinal()
+    {
+        return species;
+    }
+
+    /**
+     * Bring an entity of the same species as this one back to life that has died in an earlier step, instead of
+     * creating a new one, see EntityStore.takePooled. Its state is reset as if it had just been created.
+     * @param field The field to put the entity in.
+     * @param location The location of the entity.
+     * @return The entity, or null if there is no dead entity of the species. The state that a constructor of the
+     * species sets has to be set by the caller.
+     */
+    protected Entity reuse(Field field, Location location)
+    {
+        Entity entity = field.getStore().takePooled(species);
+        if (entity != null) {
+            entity.revive(field, location);
+        }
+        return entity;
+    }
+
+    /**
+     * Reset a dead entity as the constructor does.
+     * @param field The field to put the entity in.
+     * @param location The location of the entity.
+     */
+    protected void revive(Field field, Location location)
+    {
+        alive = true;
+        this.field = field;
+        allocateState(field);
         setLocation(location);
-        entityEnvironmentMapper = new EntityEnvironmentMapper();
+    }
+
+    /**
+     * Get an id in the entity store of the given field, which then holds the state of this entity.
+     * @param field The field.
+     */
+    private void allocateState(Field field)
+    {
+        EntityStore store = field.getStore();
+        id = store.allocate(this);
+        state = store.getPage(id);
+        slot = EntityStore.getSlot(id);
+    }
+
+    /**
+     * Return the state of this entity in the entity store of its field.
+     * @return The page that contains the state, see getSlot.
+     */
+    protected EntityStore.Page getState()
+    {
+        return state;
+    }
+
+    /**
+     * Return the index of the state of this entity in its page.
+     * @return The index.
+     */
+    protected int getSlot()
+    {
+        return slot;
+    }
+
+    /**
+     * Return when this entity was created relative to the other entities of its field. Entities that were created
+     * earlier act earlier in a step.
+     * @return The order of the entity.
+     */
+    protected long getOrder()
+    {
+        return state.order[slot];
+    }
+
+    /**
+     * Stop updating the state of this entity at every step, because it is asleep. Its state is brought up to date
+     * whenever it is looked at, see EntityStore.catchUp.
+     */
+    protected void fallAsleep()
+    {
+        state.store.fallAsleep(state, slot);
+    }
+
+    /**
+     * Bring the state of this entity up to date and update it at every step again, if it has been asleep.
+     */
+    protected void wake()
+    {
+        if ((state.flags[slot] & EntityStore.SLEEPING) != 0) {
+            state.store.catchUp(state, slot, true);
+        }
+    }
+
+    /**
+     * Return if the state of this entity is only updated when it is looked at, see fallAsleep.
+     * @return If the entity is asleep.
+     */
+    protected boolean isSleeping()
+    {
+        return (state.flags[slot] & EntityStore.SLEEPING) != 0;
+    }
+
+    /**
+     * Bring the state of this entity up to date if it is asleep. Must be called before its state is read or
+     * changed.
+     */
+    protected void catchUp()
+    {
+        if ((state.flags[slot] & EntityStore.SLEEPING) != 0) {
+            state.store.catchUp(state, slot, false);
+        }
     }
 
     /**
@@ -45,11 +167,46 @@ public abstract class Entity {
      */
     public void act(List<Entity> newEntities, int currentTime)
     {
+        updateState(currentTime);
+    }
+
+    /**
+     * Update the state of this entity itself at the start of its act: its age, food value and breeding probability.
+     * Only changes this entity, and its cell if it dies.
+     * @param currentTime The current time
+     */
+    protected void updateState(int currentTime)
+    {
+        wake();
         incrementAge();
         updateFoodValue();
         updateEnvironment();
     }
 
+    /**
+     * Decide what this entity wants to do in this step, after its state has been updated, without changing anything.
+     * Used by the IntentEngine, which carries out the intents of all entities afterwards. Does nothing by default.
+     * @param intent The intent to fill in.
+     * @param currentTime The current time
+     */
+    protected void plan(Intent intent, int currentTime)
+    {
+    }
+
+    /**
+     * Create an offspring of this entity at the given location in its field.
+     * @param location The location of the offspring.
+     * @return The offspring.
+     */
+    protected abstract Entity createYoung(Location location);
+
+    /**
+     * Called by the IntentEngine after this entity has moved. Does nothing by default.
+     */
+    protected void afterMove()
+    {
+    }
+
     /**
      * Check whether the entity is alive or not.
      * @return true if the entity is still alive.
@@ -66,8 +223,11 @@ public abstract class Entity {
     protected void setDead()
     {
         alive = false;
+        state.store.release(id, this);
         if(location != null) {
-            field.clear(location);
+            if (field.getEntityAt(location.getRow(), location.getCol(), location.getLevel()) == this) {
+                field.clear(location); // While the next state of the field is built, the cell may belong to another entity.
+            }
             location = null;
             field = null;
         }
@@ -92,6 +252,19 @@ public abstract class Entity {
             field.clear(location);
         }
         location = newLocation;
+        state.column[slot] = newLocation.getCol();
+        field.place(this, newLocation);
+    }
+
+    /**
+     * Place the entity at a location in the next state of its field, see Field.beginNextState. Its previous location
+     * is not cleared, as it belongs to the previous state.
+     * @param newLocation The entity's new location.
+     */
+    protected void placeInNextState(Location newLocation)
+    {
+        location = newLocation;
+        state.column[slot] = newLocation.getCol();
         field.place(this, newLocation);
     }
 
@@ -104,10 +277,48 @@ public abstract class Entity {
         return field;
     }
 
+    /**
+     * Return how far this entity can look, move or propagate from its location within a single act.
+     * Plants only ever propagate to adjacent locations.
+     * @return The largest distance in rows or columns.
+     */
+    protected int getReach()
+    {
+        return 1;
+    }
+
+    /**
+     * Create a copy of this entity that belongs to a fork of its field.
+     * @param field The fork of the field.
+     * @return The copy.
+     */
+    protected Entity copyTo(Field field)
+    {
+        try {
+            Entity copy = (Entity) clone();
+            copy.field = field;
+            copy.allocateState(field);
+            EntityStore.copyState(state, slot, copy.state, copy.slot);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Entities can always be copied.", e);
+        }
+    }
+
     /**
      * Update the entities foodValue
      */
-    protected abstract void updateFoodValue();
+    protected void updateFoodValue()
+    {
+        setFoodValue(getFoodValueAt(getAge()));
+    }
+
+    /**
+     * Return the foodValue of an entity of this species at the given age.
+     * @param age The age.
+     * @return The food value.
+     */
+    protected abstract int getFoodValueAt(int age);
 
     /**
      * Return the foodValue of this entity. This is the energy other animals get from eating this entity.
@@ -115,7 +326,58 @@ public abstract class Entity {
      */
     protected int getFoodValue()
     {
-        return foodValue;
+        catchUp();
+        return state.foodValue[slot];
+    }
+
+    /**
+     * Set the foodValue of this entity.
+     * @param foodValue The food value.
+     */
+    protected void setFoodValue(int foodValue)
+    {
+        catchUp();
+        state.foodValue[slot] = foodValue;
+    }
+
+    /**
+     * Return the age of this entity.
+     * @return The age.
+     */
+    protected int getAge()
+    {
+        catchUp();
+        return state.age[slot];
+    }
+
+    /**
+     * Set the age of this entity.
+     * @param age The age.
+     */
+    protected void setAge(int age)
+    {
+        catchUp();
+        state.age[slot] = age;
+    }
+
+    /**
+     * Return the current breeding probability of the entity. Changes if it is not in its preferred environment.
+     * @return The breeding probability.
+     */
+    protected double getCurrentBreedingProbability()
+    {
+        catchUp();
+        return state.breedingProbability[slot];
+    }
+
+    /**
+     * Set the current breeding probability of the entity.
+     * @param probability The breeding probability.
+     */
+    protected void setCurrentBreedingProbability(double probability)
+    {
+        catchUp();
+        state.breedingProbability[slot] = probability;
     }
 
     /**
@@ -123,8 +385,8 @@ public abstract class Entity {
      */
     protected void incrementAge()
     {
-        age++;
-        if (age > this.getMaxAge())
+        setAge(getAge() + 1);
+        if (getAge() > this.getMaxAge())
         {
             setDead();
         }
@@ -183,16 +445,25 @@ public abstract class Entity {
     protected void updateEnvironment()
     {
         if (isAlive()) { // The entity is still alive
-            String environment = entityEnvironmentMapper.getPreferredEnvironment(this);
+            String environment = getPreferredEnvironment();
             if (environment != null) { // There is a preference entry for this animal in the
                 if (field.getCurrentEnvironment(this.getLocation()).equals(environment)) // The preferred environment is equal to the current environment the entity is in
-                    currentBreedingProbability = getBreedingProbability();
+                    setCurrentBreedingProbability(getBreedingProbability());
                 else
-                    currentBreedingProbability = getBadEnvironmentBreedingProbability();
+                    setCurrentBreedingProbability(getBadEnvironmentBreedingProbability());
             }
         }
     }
 
+    /**
+     * Return the environment this entity usually lives in.
+     * @return The preferred environment, or null if there is no preference.
+     */
+    protected String getPreferredEnvironment()
+    {
+        return SpeciesRegistry.getPreferredEnvironment(species);
+    }
+
     /**
      * Generate a number representing the number of births,
      * if it can propagate.
@@ -201,7 +472,7 @@ public abstract class Entity {
     protected int breed()
     {
         int newEntities = 0;
-        if(canBreed() && rand.nextDouble() <= currentBreedingProbability)
+        if(canBreed() && rand.nextDouble() <= getCurrentBreedingProbability())
             newEntities = rand.nextInt(getMaxLitterSize()) + 1;
         return newEntities;
     }
@@ -212,7 +483,7 @@ public abstract class Entity {
      */
     protected boolean canBreed()
     {
-        return age >= getBreedingAge();
+        return getAge() >= getBreedingAge();
     }
 
     /**
@@ -225,6 +496,28 @@ public abstract class Entity {
         return getTimeActivityStart() <= currentTime && getTimeActivityEnd() >= currentTime;
     }
 
+    /**
+     * Write the state of this entity to the packed state of a history frame.
+     * @param out The stream to write to.
+     * @throws IOException If the stream can not be written to.
+     */
+    protected void writeState(DataOutputStream out) throws IOException
+    {
+        out.writeShort(getAge());
+        out.writeShort(getFoodValue());
+    }
+
+    /**
+     * Read the state of this entity from the packed state of a history frame.
+     * @param in The stream to read from.
+     * @throws IOException If the stream can not be read from.
+     */
+    protected void readState(DataInputStream in) throws IOException
+    {
+        setAge(in.readShort());
+        setFoodValue(in.readShort());
+    }
+
 
 
 }
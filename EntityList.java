@@ -0,0 +1,221 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * Class EntityList - A list of entities from which the dead can be removed while it is walked through. Instead of
+ * being removed at once, which would move all later entities down, a dead entity is replaced by a tombstone (null),
+ * see bury. At the end of the step the list is compacted in a single pass and the newborns of the step, which have
+ * been collected in a buffer that is reused every step, are appended, see endStep. Removing an entity is therefore
+ * constant time and a whole step is linear in the number of entities.
+ * Between beginStep and endStep the list contains tombstones and must only be used by the engine stepping it.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class EntityList extends AbstractList<Entity> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Entity[] elements;
+    private int size;
+    private int tombstones; // The number of dead entities that have not been compacted away yet.
+    private final List<Entity> newborns = new ArrayList<>(); // Keeps its capacity from one step to the next.
+
+    /**
+     * Create an empty list.
+     */
+    public EntityList()
+    {
+        elements = new Entity[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Create a list with the given entities.
+     * @param entities The entities, in the order they were created.
+     */
+    public EntityList(Collection<? extends Entity> entities)
+    {
+        elements = entities.toArray(new Entity[Math.max(INITIAL_CAPACITY, entities.size())]);
+        size = entities.size();
+    }
+
+    /**
+     * Prepare a step.
+     * @return The empty buffer to collect the newborns of the step in.
+     */
+    public List<Entity> beginStep()
+    {
+        newborns.clear();
+        return newborns;
+    }
+
+    /**
+     * Mark the entity at the given position as dead. It is removed at the end of the step.
+     * @param index The position of the entity.
+     */
+    public void bury(int index)
+    {
+        if (elements[index] != null) {
+            elements[index] = null;
+            tombstones++;
+        }
+    }
+
+    /**
+     * Remove the dead entities in a single pass and append the newborns of the step.
+     */
+    public void endStep()
+    {
+        compact();
+        ensureCapacity(size + newborns.size());
+        for (Entity entity : newborns) {
+            elements[size++] = entity;
+        }
+        newborns.clear(); // Do not keep the newborns alive through the buffer.
+        modCount++;
+    }
+
+    /**
+     * Move the live entities down over the tombstones, keeping their order.
+     */
+    private void compact()
+    {
+        if (tombstones == 0) {
+            return;
+        }
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            if (elements[i] != null) {
+                elements[live++] = elements[i];
+            }
+        }
+        Arrays.fill(elements, live, size, null);
+        size = live;
+        tombstones = 0;
+        modCount++;
+    }
+
+    /**
+     * Make sure the array can hold the given number of entities, growing it at most once.
+     * @param capacity The number of entities.
+     */
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(capacity, elements.length + (elements.length >> 1)));
+        }
+    }
+
+    /**
+     * Return an entity of the list.
+     * @param index The position of the entity.
+     * @return The entity, or null if it has been buried in the current step.
+     */
+    @Override
+    public Entity get(int index)
+    {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    /**
+     * Replace an entity of the list, e.g. by its own copy.
+     * @param index The position of the entity.
+     * @param entity The new entity.
+     * @return The entity that was replaced.
+     */
+    @Override
+    public Entity set(int index, Entity entity)
+    {
+        checkIndex(index);
+        Entity old = elements[index];
+        elements[index] = entity;
+        return old;
+    }
+
+    /**
+     * Add an entity to the end of the list.
+     * @param entity The entity.
+     * @return True.
+     */
+    @Override
+    public boolean add(Entity entity)
+    {
+        ensureCapacity(size + 1);
+        elements[size++] = entity;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Add entities to the end of the list, growing the array at most once.
+     * @param entities The entities.
+     * @return If any entity was added.
+     */
+    @Override
+    public boolean addAll(Collection<? extends Entity> entities)
+    {
+        ensureCapacity(size + entities.size());
+        for (Entity entity : entities) {
+            elements[size++] = entity;
+        }
+        modCount++;
+        return !entities.isEmpty();
+    }
+
+    /**
+     * Remove the entities that match a condition in a single pass.
+     * @param filter The condition.
+     * @return If any entity was removed.
+     */
+    @Override
+    public boolean removeIf(Predicate<? super Entity> filter)
+    {
+        for (int i = 0; i < size; i++) {
+            if (elements[i] != null && filter.test(elements[i])) {
+                bury(i);
+            }
+        }
+        boolean removed = tombstones > 0;
+        compact();
+        return removed;
+    }
+
+    /**
+     * Remove all entities.
+     */
+    @Override
+    public void clear()
+    {
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+        tombstones = 0;
+        modCount++;
+    }
+
+    /**
+     * Return the number of entities.
+     * @return The number of entities, including those buried in the current step.
+     */
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Check that a position lies within the list.
+     * @param index The position.
+     */
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class EntityPool - Keeps the dead entities of a field so that they can be brought back to life as newborns of the
+ * same species instead of creating new objects, see Entity.reuse. Dead entities are only added once the step they
+ * died in has finished, see EntityStore.recycle, as other entities may still look at them until then.
+ * Each species has its own free list, which is trimmed to the largest number of entities the species has taken out
+ * in a single step recently (its high-water mark), so that the pool does not keep the dead of a mass extinction.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class EntityPool {
+
+    private static final int TRIM_WINDOW = 64; // The number of steps the high-water mark is taken over.
+
+    private final FreeList[] freeLists; // The free list of each species, by its ordinal in the SpeciesRegistry.
+    private int steps; // The number of steps in the current window.
+
+    /**
+     * Create an empty pool.
+     */
+    public EntityPool()
+    {
+        freeLists = new FreeList[SpeciesRegistry.getSpeciesCount()];
+        for (int species = 0; species < freeLists.length; species++) {
+            freeLists[species] = new FreeList();
+        }
+    }
+
+    /**
+     * Take a dead entity of the given species out of the pool.
+     * @param species The ordinal of the species.
+     * @return The entity, or null if there is none.
+     */
+    public Entity take(int species)
+    {
+        return freeLists[species].take();
+    }
+
+    /**
+     * Add a dead entity to the pool.
+     * @param entity The entity, which must not be used anymore.
+     */
+    public void add(Entity entity)
+    {
+        freeLists[entity.getSpeciesOrdinal()].entities.add(entity);
+    }
+
+    /**
+     * Trim the free lists at the end of a step to their high-water marks.
+     */
+    public void endStep()
+    {
+        boolean windowEnds = ++steps == TRIM_WINDOW;
+        for (FreeList freeList : freeLists) {
+            freeList.endStep(windowEnds);
+        }
+        if (windowEnds) {
+            steps = 0;
+        }
+    }
+
+    /**
+     * Drop all entities.
+     */
+    public void clear()
+    {
+        for (FreeList freeList : freeLists) {
+            freeList.entities.clear();
+        }
+    }
+
+    /**
+     * Get the statistics of the pool, e.g. to be displayed to the user.
+     * @return A string with the share of the newborns of each species that were reused and the entities kept.
+     */
+    public String getStatistics()
+    {
+        StringBuilder statistics = new StringBuilder("Pool:");
+        for (int species = 0; species < freeLists.length; species++) {
+            FreeList freeList = freeLists[species];
+            long requests = freeList.hits + freeList.misses;
+            if (requests > 0) {
+                statistics.append(String.format(" %s %.0f%% reused (%d kept)",
+                        SpeciesRegistry.getSpeciesClass(species).getSimpleName(),
+                        100.0 * freeList.hits / requests, freeList.entities.size()));
+            }
+        }
+        return statistics.toString();
+    }
+
+    /**
+     * The dead entities of a species and how often newborns of the species have been taken from them.
+     */
+    private static class FreeList
+    {
+        private final List<Entity> entities = new ArrayList<>();
+        private long hits; // The number of newborns that were reused.
+        private long misses; // The number of newborns that had to be created.
+        private int taken; // The number of entities taken in the current step.
+        private int peak; // The largest number of entities taken in a step of the current window.
+        private int highWaterMark; // The largest number of entities taken in a step of the previous window.
+
+        /**
+         * Take the most recently added entity.
+         * @return The entity, or null if there is none.
+         */
+        Entity take()
+        {
+            taken++;
+            if (entities.isEmpty()) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entities.remove(entities.size() - 1);
+        }
+
+        /**
+         * Trim the list at the end of a step.
+         * @param windowEnds If the step is the last of a window.
+         */
+        void endStep(boolean windowEnds)
+        {
+            peak = Math.max(peak, taken);
+            taken = 0;
+            int keep = Math.max(peak, highWaterMark);
+            if (entities.size() > keep) {
+                entities.subList(keep, entities.size()).clear();
+            }
+            if (windowEnds) {
+                highWaterMark = peak;
+                peak = 0;
+            }
+        }
+    }
+}
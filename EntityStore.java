@@ -0,0 +1,646 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class EntityStore - Stores the state of the entities of a field that changes at every step (age, food value,
+ * breeding probability, energy, size, scent, sex and availability) in parallel arrays indexed by an entity id,
+ * instead of in the entity objects. Updating the age, hunger and breeding probability of all entities at the start
+ * of a step is then a loop over contiguous memory, see update. What the entities do afterwards still works on the
+ * entity objects, which read and write their state through the store.
+ * The arrays are split into pages that never move once they have been created, so entities can be created by
+ * several threads while others use the state of existing entities. The ids of dead entities are reused once the
+ * step they died in has finished, see recycle, and the dead entities themselves are then kept in a pool to be reused
+ * by newborns, see takePooled.
+ * Entities can also be put to sleep, see fallAsleep. Their state is then only brought up to date when it is looked
+ * at or when they wake up, see catchUp.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class EntityStore {
+
+    public static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT; // The number of entities per page.
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // The flags of an entity, which the store changes while holding its lock.
+    static final byte IN_USE = 1; // The id belongs to a live entity.
+    static final byte SLEEPING = 2; // The state is only updated when it is looked at, see catchUp.
+
+    private static final String[] ENVIRONMENTS = {"Savanna", "Forest", "Desert"};
+
+    private final byte[] environmentOfColumn; // The index of the environment of each column in ENVIRONMENTS.
+    private final List<Page> pages;
+    private int size; // The number of ids handed out so far.
+    private int[] freeIds; // The ids of dead entities that can be reused.
+    private int freeCount;
+    private final List<Integer> releasedIds; // The ids of the entities that died in the current step.
+    private final EntityPool pool; // The entities that died in earlier steps.
+    private long nextOrder; // The order of the next entity created, see getOrder.
+
+    // The step that is simulated and the order of the entity that is acting, if the entities act one after another.
+    private int step;
+    private long cursor;
+
+    // An entity of each species that has been in the store, by the ordinal of the species, which is used as its code.
+    private final Entity[] examples;
+    private volatile Species[] species; // The constants of each species code, see getSpecies.
+    private final ThreadLocal<Reservation> reservations = new ThreadLocal<>(); // The reservation of each thread, if any.
+
+    /**
+     * Create an empty store for the entities of the given field.
+     * @param field The field.
+     */
+    public EntityStore(Field field)
+    {
+        this(field, null);
+    }
+
+    /**
+     * Create an empty store for the entities of a fork of a field. Entities created in the fork are ordered after
+     * the entities of the parent.
+     * @param field The fork.
+     * @param parent The store of the forked field, or null if the field is not a fork.
+     */
+    public EntityStore(Field field, EntityStore parent)
+    {
+        environmentOfColumn = new byte[field.getWidth()];
+        for (int col = 0; col < environmentOfColumn.length; col++) {
+            environmentOfColumn[col] = (byte) environmentIndex(field.getCurrentEnvironment(new Location(0, col, 0)));
+        }
+        pages = new ArrayList<>();
+        freeIds = new int[PAGE_SIZE];
+        releasedIds = new ArrayList<>();
+        pool = new EntityPool();
+        examples = new Entity[SpeciesRegistry.getSpeciesCount()];
+        species = new Species[0];
+        if (parent != null) {
+            synchronized (parent) {
+                System.arraycopy(parent.examples, 0, examples, 0, examples.length);
+                species = parent.species;
+                nextOrder = parent.nextOrder;
+                step = parent.step; // Sleeping entities copied from the parent are up to date at this step.
+            }
+        }
+        cursor = Long.MAX_VALUE;
+    }
+
+    /**
+     * Hand out an id to a new entity. Its state starts out as zero. If the current thread has begun a reservation,
+     * see beginReservation, the next id of the reservation is handed out without locking the store.
+     * @param entity The entity.
+     * @return The id. The state of the entity is stored at getSlot(id) in getPage(id).
+     */
+    public int allocate(Entity entity)
+    {
+        Reservation reservation = reservations.get();
+        if (reservation != null) {
+            if (reservation.nextId == reservation.endId) {
+                throw new IllegalStateException("All " + (reservation.endId - reservation.firstId) + " reserved ids have been handed out");
+            }
+            int id = reservation.nextId++;
+            initialise(id, entity, reservation.nextOrder++);
+            return id;
+        }
+        synchronized (this) {
+            int id;
+            if (freeCount > 0) {
+                id = freeIds[--freeCount];
+            } else {
+                id = size++;
+                if ((id >> PAGE_SHIFT) == pages.size()) {
+                    pages.add(new Page(this));
+                }
+            }
+            initialise(id, entity, nextOrder++);
+            return id;
+        }
+    }
+
+    /**
+     * Reserve a block of consecutive ids for entities that are created on another thread, e.g. a band of the field
+     * that is populated in parallel, see ParallelPopulator. The entities of the block are ordered after all entities
+     * created so far and before those created later, in the order they take their ids.
+     * @param count The number of ids.
+     * @return The reservation, to be passed to beginReservation.
+     */
+    public synchronized Reservation reserve(int count)
+    {
+        Reservation reservation = new Reservation(size, count, nextOrder);
+        size += count;
+        nextOrder += count;
+        while (pages.size() < (size + PAGE_SIZE - 1) >> PAGE_SHIFT) {
+            pages.add(new Page(this)); // The pages are added now, so that handing out the ids needs no lock.
+        }
+        return reservation;
+    }
+
+    /**
+     * Let allocate hand out the ids of a reservation on the current thread, until endReservation is called. While any
+     * thread uses a reservation, no entity may be created without one.
+     * @param reservation The reservation, see reserve.
+     */
+    public void beginReservation(Reservation reservation)
+    {
+        reservations.set(reservation);
+    }
+
+    /**
+     * Let allocate hand out ids from the store again on the current thread.
+     */
+    public void endReservation()
+    {
+        reservations.remove();
+    }
+
+    /**
+     * Reset the state of an id that has been handed out to a new entity.
+     * @param id The id.
+     * @param entity The entity.
+     * @param order The order of the entity, see Entity.getOrder.
+     */
+    private void initialise(int id, Entity entity, long order)
+    {
+        Page page = pages.get(id >> PAGE_SHIFT);
+        int slot = getSlot(id);
+        byte code = (byte) entity.getSpeciesOrdinal();
+        if (examples[code] == null) {
+            examples[code] = entity; // Any entity of the species will do, so threads may race for this.
+        }
+        page.entities[slot] = entity;
+        page.species[slot] = code;
+        page.flags[slot] = IN_USE;
+        page.male[slot] = false;
+        page.available[slot] = false;
+        page.age[slot] = 0;
+        page.foodValue[slot] = 0;
+        page.column[slot] = 0;
+        page.breedingProbability[slot] = 0;
+        page.energy[slot] = 0;
+        page.size[slot] = 0;
+        page.scent[slot] = 0;
+        page.order[slot] = order;
+        page.updatedStep[slot] = 0;
+    }
+
+    /**
+     * Return the page an id belongs to.
+     * @param id The id.
+     * @return The page.
+     */
+    public synchronized Page getPage(int id)
+    {
+        return pages.get(id >> PAGE_SHIFT);
+    }
+
+    /**
+     * Return where the state of an id is stored in its page.
+     * @param id The id.
+     * @return The index in the arrays of the page.
+     */
+    public static int getSlot(int id)
+    {
+        return id & PAGE_MASK;
+    }
+
+    /**
+     * Return the number of pages.
+     * @return The number of pages.
+     */
+    public synchronized int getPageCount()
+    {
+        return pages.size();
+    }
+
+    /**
+     * Mark the id of a dead entity as unused. The id is only reused after the current step, see recycle, as other
+     * entities may still look at the dead entity until then.
+     * @param id The id of the entity.
+     * @param entity The entity. Nothing happens if the id has already been handed out to another entity, e.g.
+     * because the store has been cleared.
+     */
+    public synchronized void release(int id, Entity entity)
+    {
+        if ((id >> PAGE_SHIFT) >= pages.size()) {
+            return;
+        }
+        Page page = pages.get(id >> PAGE_SHIFT);
+        int slot = getSlot(id);
+        if (page.entities[slot] == entity && (page.flags[slot] & IN_USE) != 0) {
+            page.flags[slot] &= ~IN_USE;
+            releasedIds.add(id);
+        }
+    }
+
+    /**
+     * Make the ids and the objects of the entities that died in the last step available to new entities. Must be
+     * called between steps, when no entity is looking at the dead ones anymore.
+     */
+    public synchronized void recycle()
+    {
+        if (freeCount + releasedIds.size() > freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, Math.max(2 * freeIds.length, freeCount + releasedIds.size()));
+        }
+        for (int id : releasedIds) {
+            Page page = pages.get(id >> PAGE_SHIFT);
+            pool.add(page.entities[getSlot(id)]);
+            page.entities[getSlot(id)] = null;
+            freeIds[freeCount++] = id;
+        }
+        releasedIds.clear();
+        pool.endStep();
+    }
+
+    /**
+     * Take an entity that died in an earlier step out of the pool, to be brought back to life, see Entity.reuse.
+     * @param species The ordinal of the species of the entity.
+     * @return The dead entity, or null if there is none.
+     */
+    public synchronized Entity takePooled(int species)
+    {
+        return pool.take(species);
+    }
+
+    /**
+     * Get the statistics of the pool of dead entities, e.g. to be displayed to the user.
+     * @return A string with the share of the newborns of each species that were reused.
+     */
+    public synchronized String getPoolStatistics()
+    {
+        return pool.getStatistics();
+    }
+
+    /**
+     * Forget all entities, e.g. because the field has been cleared. The state of entities created before can not be
+     * used anymore.
+     */
+    public synchronized void clear()
+    {
+        pages.clear();
+        size = 0;
+        freeCount = 0;
+        releasedIds.clear();
+        pool.clear();
+    }
+
+    /**
+     * Copy the state of an entity of another store, e.g. of a forked field.
+     * @param from The page the state is copied from.
+     * @param fromSlot The slot in that page.
+     * @param to The page the state is copied to.
+     * @param toSlot The slot in that page.
+     */
+    public static void copyState(Page from, int fromSlot, Page to, int toSlot)
+    {
+        to.flags[toSlot] = (byte) ((from.flags[fromSlot] & ~IN_USE) | (to.flags[toSlot] & IN_USE));
+        to.male[toSlot] = from.male[fromSlot];
+        to.available[toSlot] = from.available[fromSlot];
+        to.age[toSlot] = from.age[fromSlot];
+        to.foodValue[toSlot] = from.foodValue[fromSlot];
+        to.column[toSlot] = from.column[fromSlot];
+        to.breedingProbability[toSlot] = from.breedingProbability[fromSlot];
+        to.energy[toSlot] = from.energy[fromSlot];
+        to.size[toSlot] = from.size[fromSlot];
+        to.scent[toSlot] = from.scent[fromSlot];
+        to.order[toSlot] = from.order[fromSlot];
+        to.updatedStep[toSlot] = from.updatedStep[fromSlot];
+    }
+
+    /**
+     * Start simulating a step in which the entities act one after another, in the order they were created. Until
+     * setCursor is called, none of them has acted yet.
+     * @param step The step.
+     */
+    public void beginStep(int step)
+    {
+        this.step = step;
+        cursor = Long.MIN_VALUE;
+    }
+
+    /**
+     * Mark the entity that is about to act. Entities created before it have acted already in this step.
+     * @param order The order of the entity, see Entity.getOrder.
+     */
+    public void setCursor(long order)
+    {
+        cursor = order;
+    }
+
+    /**
+     * Finish the step started by beginStep. Every entity has acted in it.
+     */
+    public void endStep()
+    {
+        cursor = Long.MAX_VALUE;
+    }
+
+    /**
+     * Put an entity to sleep at the current step, before it has acted in it. Its state is not updated anymore until
+     * it is looked at, see catchUp. The caller must make sure that the entity is asleep at every step until it
+     * wakes up and that it does not die of age in that time.
+     * @param page The page of the entity.
+     * @param slot The slot of the entity.
+     */
+    public synchronized void fallAsleep(Page page, int slot)
+    {
+        page.flags[slot] |= SLEEPING;
+        page.updatedStep[slot] = step - 1;
+    }
+
+    /**
+     * Bring the state of a sleeping entity up to date, as if it had been updated at every step it slept through,
+     * like Entity.updateState and Animal.updateState do for an entity that is asleep: it ages, its food value and
+     * breeding probability follow its age and location and an animal regains one energy per step. The current
+     * step only counts if the entity would have acted in it already, see setCursor.
+     * @param page The page of the entity.
+     * @param slot The slot of the entity.
+     * @param wake If the entity wakes up, so that its state is updated at every step again.
+     */
+    public synchronized void catchUp(Page page, int slot, boolean wake)
+    {
+        if ((page.flags[slot] & SLEEPING) == 0) {
+            return; // Woken up by another thread.
+        }
+        int target = page.order[slot] < cursor ? step : step - 1;
+        int steps = target - page.updatedStep[slot];
+        if (steps > 0) {
+            Species constants = getSpecies(page.species[slot]);
+            page.age[slot] += steps;
+            page.foodValue[slot] = constants.getFoodValue(page.age[slot]);
+            if (constants.preferredEnvironment >= 0) {
+                page.breedingProbability[slot] = environmentOfColumn[page.column[slot]] == constants.preferredEnvironment
+                        ? constants.breedingProbability : constants.badBreedingProbability;
+            }
+            if (constants.animal) {
+                page.energy[slot] += steps;
+            }
+            page.updatedStep[slot] = target;
+        }
+        if (wake) {
+            page.flags[slot] &= ~SLEEPING;
+        }
+    }
+
+    /**
+     * Check if an entity of any species that has ever been in this store is awake at the given time.
+     * @param currentTime The time.
+     * @return If any species is awake.
+     */
+    public boolean isAnyoneAwake(int currentTime)
+    {
+        for (byte code = 0; code < examples.length; code++) {
+            synchronized (this) {
+                if (examples[code] == null) {
+                    continue;
+                }
+            }
+            Species constants = getSpecies(code);
+            if (constants.activityStart <= currentTime && constants.activityEnd >= currentTime) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Let all entities sleep through several steps at once, at which none of them is awake: they age, their food
+     * value and breeding probability follow their age and location and the animals regain one energy per step, as
+     * if the steps had been simulated one by one. Entities that are too old afterwards are only collected.
+     * @param fromStep The step before the first step slept through.
+     * @param steps The number of steps.
+     * @param dying A list to receive the entities that have died of age.
+     */
+    public synchronized void fastForward(int fromStep, int steps, List<Entity> dying)
+    {
+        step = fromStep;
+        cursor = Long.MAX_VALUE;
+        for (Page page : pages) {
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                if ((page.flags[slot] & (IN_USE | SLEEPING)) == (IN_USE | SLEEPING)) {
+                    catchUp(page, slot, false);
+                    page.updatedStep[slot] = fromStep + steps;
+                }
+            }
+            // Every slot ages in one pass; the age of an unused slot does not matter, as allocate resets it.
+            GridKernels.add(page.age, 0, PAGE_SIZE, steps);
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                if ((page.flags[slot] & IN_USE) == 0) {
+                    continue;
+                }
+                Species constants = getSpecies(page.species[slot]);
+                page.foodValue[slot] = constants.getFoodValue(page.age[slot]);
+                if (constants.preferredEnvironment >= 0) {
+                    page.breedingProbability[slot] = environmentOfColumn[page.column[slot]] == constants.preferredEnvironment
+                            ? constants.breedingProbability : constants.badBreedingProbability;
+                }
+                if (constants.animal) {
+                    page.energy[slot] += steps;
+                }
+                if (page.age[slot] > constants.maxAge) {
+                    dying.add(page.entities[slot]);
+                }
+            }
+        }
+        step = fromStep + steps;
+    }
+
+    /**
+     * Update the state of every entity in the given pages at the start of a step, like Entity.updateState and
+     * Animal.updateState do for a single entity: age it, update its food value and breeding probability and let it
+     * either get hungry or regain energy. Entities that die of age or hunger are only collected, as removing them
+     * from the field changes the field. Different pages can be updated by different threads at once.
+     * @param fromPage The first page.
+     * @param toPage The page after the last one.
+     * @param currentTime The current time.
+     * @param dying A list to receive the entities that have died.
+     */
+    public void update(int fromPage, int toPage, int currentTime, List<Entity> dying)
+    {
+        for (int p = fromPage; p < toPage; p++) {
+            Page page = getPageAt(p);
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                if ((page.flags[slot] & IN_USE) != 0 && !update(page, slot, currentTime)) {
+                    dying.add(page.entities[slot]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the state of a single entity at the start of a step, see update(int, int, int, List). Different
+     * entities can be updated by different threads at once.
+     * @param page The page that contains the state of the entity.
+     * @param slot The index of the state in the page.
+     * @param currentTime The current time.
+     * @return If the entity is still alive, otherwise it has to be removed from the field.
+     */
+    public boolean update(Page page, int slot, int currentTime)
+    {
+        if ((page.flags[slot] & SLEEPING) != 0) {
+            catchUp(page, slot, true);
+        }
+        Species constants = getSpecies(page.species[slot]);
+        int age = ++page.age[slot];
+        boolean alive = age <= constants.maxAge;
+        page.foodValue[slot] = constants.getFoodValue(age);
+        if (alive && constants.preferredEnvironment >= 0) {
+            page.breedingProbability[slot] = environmentOfColumn[page.column[slot]] == constants.preferredEnvironment
+                    ? constants.breedingProbability : constants.badBreedingProbability;
+        }
+        if (constants.animal) {
+            if (constants.activityStart <= currentTime && constants.activityEnd >= currentTime) {
+                page.energy[slot] -= Math.round(page.size[slot] + page.scent[slot]);
+                alive &= page.energy[slot] > 0;
+            } else {
+                page.energy[slot]++; // Sleeping and regathering energy.
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * Return a page by its index.
+     * @param index The index of the page.
+     * @return The page.
+     */
+    private synchronized Page getPageAt(int index)
+    {
+        return pages.get(index);
+    }
+
+    /**
+     * Return the constants of a species, which are taken from the first entity of the species the first time they
+     * are needed, when it has been fully created.
+     * @param code The species code.
+     * @return The constants.
+     */
+    private Species getSpecies(byte code)
+    {
+        Species[] known = species;
+        if (code < known.length && known[code] != null) {
+            return known[code];
+        }
+        synchronized (this) {
+            known = species.length > code ? species.clone() : Arrays.copyOf(species, code + 1);
+            if (known[code] == null) {
+                known[code] = new Species(examples[code]);
+                species = known;
+            }
+            return known[code];
+        }
+    }
+
+    /**
+     * Return the index of an environment in ENVIRONMENTS.
+     * @param environment The name of the environment, may be null.
+     * @return The index, or -1 if there is no such environment.
+     */
+    private static int environmentIndex(String environment)
+    {
+        return Arrays.asList(ENVIRONMENTS).indexOf(environment);
+    }
+
+    /**
+     * The state of PAGE_SIZE entities, one array per variable.
+     */
+    static final class Page
+    {
+        final EntityStore store;
+        final Entity[] entities = new Entity[PAGE_SIZE];
+        final byte[] species = new byte[PAGE_SIZE];
+        final byte[] flags = new byte[PAGE_SIZE];
+        // Kept apart from the flags, as mating changes them from the threads of an engine without the lock.
+        final boolean[] male = new boolean[PAGE_SIZE];
+        final boolean[] available = new boolean[PAGE_SIZE]; // Available for coitus.
+        final int[] age = new int[PAGE_SIZE];
+        final int[] foodValue = new int[PAGE_SIZE];
+        final int[] column = new int[PAGE_SIZE]; // The column of the location, which determines the environment.
+        final double[] breedingProbability = new double[PAGE_SIZE];
+        final double[] energy = new double[PAGE_SIZE];
+        final double[] size = new double[PAGE_SIZE];
+        final double[] scent = new double[PAGE_SIZE];
+        final long[] order = new long[PAGE_SIZE]; // The order in which the entities were created.
+        final int[] updatedStep = new int[PAGE_SIZE]; // The last step a sleeping entity has been updated for.
+
+        /**
+         * Create an empty page.
+         * @param store The store the page belongs to.
+         */
+        Page(EntityStore store)
+        {
+            this.store = store;
+        }
+    }
+
+    /**
+     * A block of consecutive ids reserved for entities created on one thread, see reserve.
+     */
+    public static final class Reservation
+    {
+        private final int firstId;
+        private final int endId; // The first id after the block.
+        private int nextId;
+        private long nextOrder;
+
+        /**
+         * Create a reservation.
+         * @param firstId The first id of the block.
+         * @param count The number of ids.
+         * @param firstOrder The order of the entity that takes the first id.
+         */
+        private Reservation(int firstId, int count, long firstOrder)
+        {
+            this.firstId = firstId;
+            endId = firstId + count;
+            nextId = firstId;
+            nextOrder = firstOrder;
+        }
+    }
+
+    /**
+     * The constants of a species that the update of the entities needs.
+     */
+    private static final class Species
+    {
+        private final Entity prototype; // Computes the food values beyond the table.
+        private final int maxAge;
+        private final int activityStart;
+        private final int activityEnd;
+        private final double breedingProbability;
+        private final double badBreedingProbability;
+        private final int preferredEnvironment; // The index in ENVIRONMENTS, or -1 if there is no preference.
+        private final boolean animal;
+        private final int[] foodValues; // The food value by age.
+
+        /**
+         * Take the constants of a species from one of its entities.
+         * @param entity The entity.
+         */
+        Species(Entity entity)
+        {
+            prototype = entity;
+            maxAge = entity.getMaxAge();
+            activityStart = entity.getTimeActivityStart();
+            activityEnd = entity.getTimeActivityEnd();
+            breedingProbability = entity.getBreedingProbability();
+            badBreedingProbability = entity.getBadEnvironmentBreedingProbability();
+            preferredEnvironment = environmentIndex(entity.getPreferredEnvironment());
+            animal = entity instanceof Animal;
+            foodValues = new int[maxAge + 2];
+            for (int age = 0; age < foodValues.length; age++) {
+                foodValues[age] = entity.getFoodValueAt(age);
+            }
+        }
+
+        /**
+         * Return the food value of an entity of this species.
+         * @param age The age of the entity.
+         * @return The food value.
+         */
+        int getFoodValue(int age)
+        {
+            return age >= 0 && age < foodValues.length ? foodValues[age] : prototype.getFoodValueAt(age);
+        }
+    }
+}
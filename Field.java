@@ -16,10 +16,20 @@ public class Field {
     private final int depth;
     private final int width;
     private final int height;
-    // Storage for the animals.
-    private final Entity[][][] field;
-    private Stack<Entity[][][]> previousFields;
-    private Stack<Entity[][][]> nextFields;
+    // Storage for the animals. The cells are split into square chunks that are shared between forks of a field
+    // until one of them writes to a chunk.
+    private static final int CHUNK_SHIFT = 4;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // The width and depth of a chunk.
+    private final int chunkColumns;
+    private Chunk[] chunks;
+    private boolean chunksShared; // If the chunk table itself is shared with another field.
+    private boolean frozen; // A field that has been forked can not be changed anymore.
+    private Chunk[] previousChunks; // The previous state of the field, reused by beginNextState.
+
+    // Copies of the shared entities of a forked field that have been made in this field.
+    private final IdentityHashMap<Entity, Entity> copies;
+    private final EntityStore store; // The state of the entities of this field.
+    private final FieldStats stats; // The number of entities of each species, kept up to date by place and clear.
 
     private final Environment savannaEnvironment;
     private final Environment forestEnvironment;
@@ -35,133 +45,186 @@ public class Field {
     {
         this.depth = depth;
         this.width = width;
-        this.height = new EntityLevelMapper().getAmountOfLevels();
-        field = new Entity[depth][width][height]; //a maximum of four entities can be on the same field 8 (x and y): plant, animal on ground and animal in air. Should maybe not be hardcoded.
-        previousFields = new Stack<>();
-        nextFields = new Stack<>();
+        this.height = SpeciesRegistry.getLevelCount();
+        //a maximum of four entities can be on the same field 8 (x and y): plant, animal on ground and animal in air. Should maybe not be hardcoded.
+        chunkColumns = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        chunks = new Chunk[chunkColumns * ((depth + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        copies = new IdentityHashMap<>();
+        stats = new FieldStats(width);
+        clear();
         savannaEnvironment = new Environment("Savanna", 0, width/3);
         forestEnvironment = new Environment("Forest", width/3+1, (width/3)*2);
         desertEnvironment = new Environment("Desert", (width/3)*2+1, width-1);
+        store = new EntityStore(this);
     }
 
     /**
-     * Returns the name of the environment of the location.
-     * @param location The location the environment is requested of.
-     * @return The name of the environment.
+     * Create a fork of the given field. The fork shares all chunks and entities with the given field until either
+     * of them changes them, so forking takes constant time. The given field can not be changed anymore afterwards,
+     * so it is usually forked twice: once for each branch.
+     * @param parent The field to fork.
      */
-    public String getCurrentEnvironment(Location location) {
-        if(location.getCol() <= savannaEnvironment.getEndCol()) {
-            return "Savanna";
-        } else if(location.getCol() > savannaEnvironment.getEndCol() && location.getCol() < desertEnvironment.getStartCol() ) {
-            return "Forest";
-        } else {
-            return "Desert";
-        }
+    private Field(Field parent)
+    {
+        depth = parent.depth;
+        width = parent.width;
+        height = parent.height;
+        chunkColumns = parent.chunkColumns;
+        chunks = parent.chunks;
+        chunksShared = true;
+        copies = new IdentityHashMap<>();
+        savannaEnvironment = parent.savannaEnvironment;
+        forestEnvironment = parent.forestEnvironment;
+        desertEnvironment = parent.desertEnvironment;
+        store = new EntityStore(this, parent.store); // The shared entities keep their state in the store of the parent until copied.
+        stats = new FieldStats(parent.stats);
+        parent.chunksShared = true;
+        parent.frozen = true;
     }
 
     /**
-     * A getter method that returns the savanna environment object
-     * @return the savanna environment
+     * Fork this field. Afterwards this field can not be changed anymore.
+     * @return A new field with the same content.
      */
-    public Environment getSavannaEnvironment() {
-        return savannaEnvironment;
+    public Field fork()
+    {
+        return new Field(this);
     }
 
     /**
-     * A getter method that returns the forest Environment object
-     * @return the forest environment
+     * Return the store that keeps the state of the entities of this field.
+     * @return The entity store.
      */
-    public Environment getForestEnvironment() {
-        return forestEnvironment;
+    public EntityStore getStore()
+    {
+        return store;
     }
-    
+
     /**
-     * Empty the field.
+     * Return the statistics of this field, which are kept up to date whenever an entity is placed or cleared.
+     * @return The statistics.
      */
-    public void clear()
+    public FieldStats getStats()
     {
-        for (int level = 0; level < height; level++) {
-            for (int row = 0; row < depth; row++) {
-                for (int col = 0; col < width; col++) {
-                    field[row][col][level] = null;
-                }
-            }
-        }
+        return stats;
     }
 
     /**
-     * Pushes the current field into the stack which holds the previously visited fields
+     * Return the copy of an entity that belongs to this field. Entities of a forked field are shared between all
+     * of its forks; they are copied the first time they are accessed through a fork, so that changing them does not
+     * affect the other forks.
+     * @param entity The entity, may be null.
+     * @return The entity if it belongs to this field, otherwise its copy.
      */
-    public void savePrev()
+    public Entity own(Entity entity)
     {
-        Entity[][][] temp = new Entity[depth][width][height];
-        for (int level = 0; level < height; level++) {
-            for (int row = 0; row < depth; row++) {
-                for (int col = 0; col < width; col++) {
-                    temp[row][col][level] = field[row][col][level];
-                }
+        if (entity == null || entity.getField() == this || entity.getField() == null) {
+            return entity;
+        }
+        Entity copy = copies.get(entity);
+        if (copy == null) {
+            copy = entity.copyTo(this);
+            copies.put(entity, copy);
+            Location location = entity.getLocation();
+            if (getEntityAt(location.getRow(), location.getCol(), location.getLevel()) == entity) {
+                place(copy, location);
             }
         }
-        previousFields.push(temp);
+        return copy;
     }
 
     /**
-     * Pushes the current field into the stack that holds the fields of the fields that have been previously visited,
-     * but are after the current step
+     * Forget the copies of shared entities once none of the shared entities can be reached anymore, i.e. after every
+     * live entity has acted once.
      */
-    public void saveNext()
+    public void releaseCopies()
     {
-        Entity[][][] temp = new Entity[depth][width][height];
-        for (int level = 0; level < height; level++) {
-            for (int row = 0; row < depth; row++) {
-                for (int col = 0; col < width; col++) {
-                    temp[row][col][level] = field[row][col][level];
-                }
+        copies.clear();
+    }
+
+    /**
+     * Copy every chunk that is still shared with a fork. Afterwards entities can be placed from several threads at
+     * once, as long as they change different cells.
+     */
+    public void unshare()
+    {
+        checkNotFrozen();
+        if (chunksShared) {
+            chunks = chunks.clone();
+            chunksShared = false;
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i].owner != this) {
+                chunks[i] = new Chunk(this, chunks[i]);
             }
         }
-        nextFields.push(temp);
     }
 
     /**
-     * Pops a field from the stack that holds the previous fields and sets it as the current field. It also saves the
-     * current field into the next fields stack
+     * Start building the next state of the field in a second, empty buffer. Afterwards the field only contains what
+     * is placed into it, while the previous state is kept to be reused as the buffer of the following call, so the
+     * two buffers take turns.
      */
-    public void loadPrevious()
+    public void beginNextState()
     {
-        Entity[][][] temp = previousFields.pop();
-        saveNext();
-        for (int level = 0; level < height; level++) {
-            for (int row = 0; row < depth; row++) {
-                for (int col = 0; col < width; col++) {
-                    field[row][col][level] = temp[row][col][level];
-                }
+        checkNotFrozen();
+        Chunk[] next = previousChunks != null ? previousChunks : new Chunk[chunks.length];
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] != null && next[i].owner == this) {
+                Arrays.fill(next[i].cells, null);
+            } else {
+                next[i] = new Chunk(this, height);
             }
         }
+        previousChunks = chunksShared ? null : chunks; // A table shared with a fork can not be reused.
+        chunks = next;
+        chunksShared = false;
+        stats.clear();
     }
 
     /**
-     * Pops a field from the stack that loads the next fields that have been previously visited, but are further from
-     * the current step. It also saves the current field into the stack that holds the previous fields.
+     * Returns the name of the environment of the location.
+     * @param location The location the environment is requested of.
+     * @return The name of the environment.
      */
-    public void loadNext() {
-        Entity[][][] temp = nextFields.pop();
-        savePrev();
-        for (int level = 0; level < height; level++) {
-            for (int row = 0; row < depth; row++) {
-                for (int col = 0; col < width; col++) {
-                    field[row][col][level] = temp[row][col][level];
-                }
-            }
+    public String getCurrentEnvironment(Location location) {
+        if(location.getCol() <= savannaEnvironment.getEndCol()) {
+            return "Savanna";
+        } else if(location.getCol() > savannaEnvironment.getEndCol() && location.getCol() < desertEnvironment.getStartCol() ) {
+            return "Forest";
+        } else {
+            return "Desert";
         }
     }
 
     /**
-     * Checks whether the stack of the next fields is empty. It is empty when the current step is at the maximum
-     * it has been since compiling the program.
-     * @return If the stack of the next field is empty.
+     * A getter method that returns the savanna environment object
+     * @return the savanna environment
      */
-    public boolean isNext() {
-        return !(nextFields.isEmpty());
+    public Environment getSavannaEnvironment() {
+        return savannaEnvironment;
+    }
+
+    /**
+     * A getter method that returns the forest Environment object
+     * @return the forest environment
+     */
+    public Environment getForestEnvironment() {
+        return forestEnvironment;
+    }
+    
+    /**
+     * Empty the field.
+     */
+    public void clear()
+    {
+        checkNotFrozen();
+        chunks = new Chunk[chunks.length];
+        chunksShared = false;
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk(this, height);
+        }
+        stats.clear();
     }
 
     /**
@@ -170,7 +233,7 @@ public class Field {
      */
     public void clear(Location location)
     {
-        field[location.getRow()][location.getCol()][location.getLevel()] = null;
+        setCell(location, null);
     }
     
     /**
@@ -182,21 +245,45 @@ public class Field {
      */
     public void place(Entity entity, Location location)
     {
-        field[location.getRow()][location.getCol()][location.getLevel()] = entity;
+        setCell(location, entity);
+    }
+
+    /**
+     * Put an entity into a cell, or empty it, and update the statistics.
+     * @param location The cell.
+     * @param entity The entity, or null.
+     */
+    private void setCell(Location location, Entity entity)
+    {
+        Entity[] cells = writableChunk(location.getRow(), location.getCol()).cells;
+        int index = cellIndex(location.getRow(), location.getCol(), location.getLevel());
+        Entity previous = cells[index];
+        if (previous == entity) {
+            return;
+        }
+        cells[index] = entity;
+        if (previous != null) {
+            stats.remove(previous.getSpeciesOrdinal(), location.getCol());
+        }
+        if (entity != null) {
+            stats.add(entity.getSpeciesOrdinal(), location.getCol());
+        }
     }
     
     /**
-     * Return the entity at the given location, if any.
+     * Return the entity at the given location, if any. Entities shared with another fork are copied first, so the
+     * returned entity may be changed.
      * @param location Where in the field.
      * @return The entity at the given location, or null if there is none.
      */
     public Entity getEntityAt(Location location)
     {
-        return getEntityAt(location.getRow(), location.getCol(), location.getLevel());
+        return own(getEntityAt(location.getRow(), location.getCol(), location.getLevel()));
     }
     
     /**
-     * Return the entity at the given location, if any.
+     * Return the entity at the given location, if any. The entity may be shared with another fork of this field
+     * and must therefore only be read, e.g. to display it.
      * @param row The desired row.
      * @param col The desired column.
      * @param level The desired level.
@@ -204,7 +291,7 @@ public class Field {
      */
     public Entity getEntityAt(int row, int col, int level)
     {
-        return field[row][col][level];
+        return chunks[chunkIndex(row, col)].cells[cellIndex(row, col, level)];
     }
 
     /**
@@ -215,7 +302,7 @@ public class Field {
      */
     public Object getObjectAtLevel(Location location, int level)
     {
-        return field[location.getRow()][location.getCol()][level];
+        return getEntityAt(location.getRow(), location.getCol(), level);
     }
 
     /**
@@ -288,7 +375,7 @@ public class Field {
      * @param location The location from which to generate adjacencies.
      * @return A list of locations adjacent to that given.
      */
-    public List<Location> adjacentLocations(Location location, ArrayList<Integer> searchLevelList, int radius)
+    public List<Location> adjacentLocations(Location location, int[] searchLevels, int radius)
     {
         assert location != null : "Null location passed to adjacentLocations";
         // The list of locations to be returned.
@@ -297,8 +384,8 @@ public class Field {
                 int row = location.getRow();
                 int col = location.getCol();
                 int level;
-                for (int u = 0; u < searchLevelList.size(); u++) {
-                    level = searchLevelList.get(u);
+                for (int u = 0; u < searchLevels.length; u++) {
+                    level = searchLevels[u];
                     for (int roffset = -radius; roffset <= radius; roffset += 1) {
                         int nextRow = row + roffset;
                         if (nextRow >= 0 && nextRow < depth) {
@@ -344,18 +431,30 @@ public class Field {
      */
     public boolean isFree(Location location)
     {
-        switch (location.getLevel()) //The level that the specified field is at //enums would be nice //also a separate method checking for validity instead of having all the conditions here.
+        return isFree(location.getRow(), location.getCol(), location.getLevel());
+    }
+
+    /**
+     * Returns if a given cell is free depending on its level, see isFree(Location).
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param level The level of the cell.
+     * @return If the cell is free.
+     */
+    public boolean isFree(int row, int col, int level)
+    {
+        switch (level) //The level that the specified field is at //enums would be nice //also a separate method checking for validity instead of having all the conditions here.
         {
-            case 0: if(getObjectAtLevel(location, 0) == null && getObjectAtLevel(location, 1) == null) //we are looking at level 0 (grass). Object at level 0 (grass) or level 1 (tree) makes the field occupied
+            case 0: if(getEntityAt(row, col, 0) == null && getEntityAt(row, col, 1) == null) //we are looking at level 0 (grass). Object at level 0 (grass) or level 1 (tree) makes the field occupied
                 return true;
                 break;
-            case 1: if(getObjectAtLevel(location, 1) == null) //&& getObjectAtLevel(next, 0) == null && getObjectAtLevel(next, 2) == null) //we are looking at level 1 (tree). this will only propagate if there is no other tree, grass or ground animal (level 1 or level 2)
+            case 1: if(getEntityAt(row, col, 1) == null) //&& getObjectAtLevel(next, 0) == null && getObjectAtLevel(next, 2) == null) //we are looking at level 1 (tree). this will only propagate if there is no other tree, grass or ground animal (level 1 or level 2)
                 return true;
                 break;
-            case 2: if(getObjectAtLevel(location, 2) == null && getObjectAtLevel(location, 1) == null) //looking at level 2 (animal) free if there is no other ground animal or tree
+            case 2: if(getEntityAt(row, col, 2) == null && getEntityAt(row, col, 1) == null) //looking at level 2 (animal) free if there is no other ground animal or tree
                 return true;
                 break;
-            case 3: if(getObjectAtLevel(location, 3) == null) //looking at level 3 (air animal) free if there is no other air animal
+            case 3: if(getEntityAt(row, col, 3) == null) //looking at level 3 (air animal) free if there is no other air animal
                 return true;
                 break;
         }
@@ -471,4 +570,90 @@ public class Field {
      * @return The height of the field
      */
     public int getHeight() { return height; }
+
+    /**
+     * Return the index of the chunk containing the given cell.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The index in the chunk table.
+     */
+    private int chunkIndex(int row, int col)
+    {
+        return (row >> CHUNK_SHIFT) * chunkColumns + (col >> CHUNK_SHIFT);
+    }
+
+    /**
+     * Return the index of a cell within its chunk.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param level The level of the cell.
+     * @return The index in the cells of the chunk.
+     */
+    private static int cellIndex(int row, int col, int level)
+    {
+        return (level * CHUNK_SIZE + (row & (CHUNK_SIZE - 1))) * CHUNK_SIZE + (col & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Return the chunk containing the given cell, copying it first if it is shared with another fork.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return A chunk that belongs to this field.
+     */
+    private Chunk writableChunk(int row, int col)
+    {
+        checkNotFrozen();
+        if (chunksShared) {
+            chunks = chunks.clone();
+            chunksShared = false;
+        }
+        int index = chunkIndex(row, col);
+        Chunk chunk = chunks[index];
+        if (chunk.owner != this) {
+            chunk = new Chunk(this, chunk);
+            chunks[index] = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * Make sure this field has not been forked, as forks share its chunks.
+     */
+    private void checkNotFrozen()
+    {
+        if (frozen) {
+            throw new IllegalStateException("A field can not be changed after it has been forked.");
+        }
+    }
+
+    /**
+     * A square part of the field, storing the entities of all levels.
+     */
+    private static class Chunk
+    {
+        private final Field owner; // The only field allowed to change this chunk.
+        private final Entity[] cells;
+
+        /**
+         * Create an empty chunk.
+         * @param owner The field the chunk belongs to.
+         * @param height The number of levels.
+         */
+        public Chunk(Field owner, int height)
+        {
+            this.owner = owner;
+            cells = new Entity[height * CHUNK_SIZE * CHUNK_SIZE];
+        }
+
+        /**
+         * Create a copy of a chunk.
+         * @param owner The field the copy belongs to.
+         * @param chunk The chunk to copy.
+         */
+        public Chunk(Field owner, Chunk chunk)
+        {
+            this.owner = owner;
+            cells = chunk.cells.clone();
+        }
+    }
 }
@@ -1,106 +1,221 @@
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Class This class collects and provides some statistical data on the state
- * of a field. It is flexible: it will create and maintain a counter 
- * for any class of object that is found within the field.
- * 
+ * of a field. It counts the entities of each species in each environment.
+ * The counts of a field are kept up to date by the field itself whenever an
+ * entity is placed or cleared, see Field.getStats, so reading them does not
+ * need to look at the grid. Entities may be placed from several threads at
+ * once, so the counts are updated atomically. Threads that place many
+ * entities at once, e.g. the tasks of a parallel step engine, count them in
+ * a batch of their own instead, see beginBatch, so that they do not contend
+ * for the shared counts.
+ *
  * @author David J. Barnes and Michael Kölling edited by Valentin Magis and Barnabas Szalai
  * @version 2021-03-02
  */
 public class FieldStats
 {
-    // Counters for each type of entity (fox, rabbit, etc.) in the simulation.
-    private HashMap<Class, Counter> counters;
-    // Whether the counters are currently up to date.
-    private boolean countsValid;
+    private static final String[] ENVIRONMENTS = {"Savanna", "Forest", "Desert"};
+
+    // The index in ENVIRONMENTS of the environment each column is counted in.
+    private final byte[] environmentOfColumn;
+    // The number of entities of each species in each environment, at species * ENVIRONMENTS.length + environment.
+    private final AtomicIntegerArray counts;
+    // The changes of the counts made by each thread in its batch, if any, see beginBatch.
+    private final ThreadLocal<int[]> batches = new ThreadLocal<>();
+    // Whether an entity of a species has been counted at all, so that it is shown even when it has died out.
+    private final boolean[] seen;
+    // The columns of a row split into runs of the same environment: the first column of each run, followed by the
+    // width, and the environment of each run.
+    private final int[] segmentStarts;
+    private final byte[] segmentEnvironments;
 
     /**
-     * Construct a FieldStats object.
+     * Construct a FieldStats object for a field of the given width, without any entities.
+     * @param width The width of the field.
      */
-    public FieldStats()
+    public FieldStats(int width)
     {
-        // Set up a collection for counters for each type of animal that
-        // we might find
-        counters = new HashMap<>();
-        countsValid = true;
+        environmentOfColumn = new byte[width];
+        for (int col = 0; col < width; col++) {
+            environmentOfColumn[col] = (byte) getEnvironmentIndex(col, width);
+        }
+        counts = new AtomicIntegerArray(SpeciesRegistry.getSpeciesCount() * ENVIRONMENTS.length);
+        seen = new boolean[SpeciesRegistry.getSpeciesCount()];
+        int segments = 0;
+        for (int col = 0; col < width; col++) {
+            if (col == 0 || environmentOfColumn[col] != environmentOfColumn[col - 1]) {
+                segments++;
+            }
+        }
+        segmentStarts = new int[segments + 1];
+        segmentEnvironments = new byte[segments];
+        segments = 0;
+        for (int col = 0; col < width; col++) {
+            if (col == 0 || environmentOfColumn[col] != environmentOfColumn[col - 1]) {
+                segmentStarts[segments] = col;
+                segmentEnvironments[segments++] = environmentOfColumn[col];
+            }
+        }
+        segmentStarts[segments] = width;
+    }
+
+    /**
+     * Construct a FieldStats object with the same counts as the given one, e.g. for a fork of a field.
+     * @param parent The statistics to copy, which must not change meanwhile.
+     */
+    public FieldStats(FieldStats parent)
+    {
+        environmentOfColumn = parent.environmentOfColumn;
+        counts = new AtomicIntegerArray(parent.counts.length());
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, parent.counts.get(i));
+        }
+        seen = parent.seen.clone();
+        segmentStarts = parent.segmentStarts;
+        segmentEnvironments = parent.segmentEnvironments;
     }
 
     /**
      * Get details of what is in the field.
      * @return A string describing what is in the field.
      */
-    public String getPopulationDetails(Field field)
+    public String getPopulationDetails()
     {
-        StringBuffer buffer = new StringBuffer();
-        if(!countsValid) {
-            generateCounts(field);
-        }
-        for(Class key : counters.keySet()) {
-            Counter info = counters.get(key);
-            buffer.append(info.getName());
-            buffer.append(": ");
-            buffer.append(info.getCount());
-            buffer.append(' ');
+        return getPopulationDetails(null);
+    }
+
+    /**
+     * Get details of what is in an environment of the field.
+     * @param environment The name of the environment, or null for the whole field.
+     * @return A string describing what is in the environment.
+     */
+    public String getPopulationDetails(String environment)
+    {
+        int index = environment == null ? -1 : environmentIndex(environment);
+        StringBuilder buffer = new StringBuilder();
+        for (int species = 0; species < seen.length; species++) {
+            if (seen[species]) {
+                buffer.append(SpeciesRegistry.getSpeciesClass(species).getName());
+                buffer.append(": ");
+                if (environment == null) {
+                    buffer.append(getCount(species));
+                } else {
+                    buffer.append(index < 0 ? 0 : counts.get(species * ENVIRONMENTS.length + index));
+                }
+                buffer.append(' ');
+            }
         }
         return buffer.toString();
     }
 
     /**
-     * Get details of what is in the field.
-     * @return A string describing what is in the field.
+     * Return the number of entities of a species in the field.
+     * @param species The ordinal of the species.
+     * @return The number of entities.
+     */
+    public int getCount(int species)
+    {
+        int count = 0;
+        for (int environment = 0; environment < ENVIRONMENTS.length; environment++) {
+            count += counts.get(species * ENVIRONMENTS.length + environment);
+        }
+        return count;
+    }
+
+    /**
+     * Count an entity that has been placed in the field.
+     * @param species The ordinal of the species of the entity.
+     * @param col The column the entity has been placed in.
      */
-    public String getPopulationDetails(Field field, String environment)
+    public void add(int species, int col)
     {
-        StringBuffer buffer = new StringBuffer();
-        if(!countsValid) {
-            generateCounts(field);
+        int index = species * ENVIRONMENTS.length + environmentOfColumn[col];
+        int[] batch = batches.get();
+        if (batch != null) {
+            batch[index]++;
+        } else {
+            counts.incrementAndGet(index);
         }
-        for(Class key : counters.keySet()) {
-            Counter info = counters.get(key);
-            buffer.append(info.getName());
-            buffer.append(": ");
-            buffer.append(info.getEnvironmentCount(environment));
-            buffer.append(' ');
+        if (!seen[species]) {
+            seen[species] = true;
         }
-        return buffer.toString();
     }
-    
+
     /**
-     * Invalidate the current set of statistics; reset all 
-     * counts to zero.
+     * Count the entities of a recorded step, see History.
+     * @param codes The species code of every cell, level after level and row after row, where the code of a species
+     * is its ordinal plus one and 0 marks an empty cell.
      */
-    public void reset()
+    public void addCodes(byte[] codes)
     {
-        countsValid = false;
-        for(Class key : counters.keySet()) {
-            Counter count = counters.get(key);
-            count.reset();
+        int width = environmentOfColumn.length;
+        int[][] histograms = new int[ENVIRONMENTS.length][SpeciesRegistry.getSpeciesCount() + 1];
+        for (int rowStart = 0; rowStart + width <= codes.length; rowStart += width) {
+            for (int segment = 0; segment < segmentEnvironments.length; segment++) {
+                GridKernels.histogram(codes, rowStart + segmentStarts[segment], rowStart + segmentStarts[segment + 1],
+                        histograms[segmentEnvironments[segment]]);
+            }
+        }
+        for (int environment = 0; environment < ENVIRONMENTS.length; environment++) {
+            for (int species = 0; species < seen.length; species++) {
+                int count = histograms[environment][species + 1];
+                if (count > 0) {
+                    counts.addAndGet(species * ENVIRONMENTS.length + environment, count);
+                    seen[species] = true;
+                }
+            }
         }
     }
 
     /**
-     * Increment the count for one class of animal.
-     * @param animalClass The class of animal to increment.
+     * Stop counting an entity that has been cleared from the field.
+     * @param species The ordinal of the species of the entity.
+     * @param col The column the entity has been cleared from.
      */
-    public void incrementCount(Class animalClass, String environment)
+    public void remove(int species, int col)
     {
-        Counter count = counters.get(animalClass);
-        if(count == null) {
-            // We do not have a counter for this species yet.
-            // Create one.
-            count = new Counter(animalClass.getName());
-            counters.put(animalClass, count);
+        int index = species * ENVIRONMENTS.length + environmentOfColumn[col];
+        int[] batch = batches.get();
+        if (batch != null) {
+            batch[index]--;
+        } else {
+            counts.decrementAndGet(index);
         }
-        count.increment(environment);
     }
 
     /**
-     * Indicate that an animal count has been completed.
+     * Collect the changes of the counts made on the current thread in a batch, until endBatch is called. The counts
+     * read meanwhile do not include the changes of the batch.
      */
-    public void countFinished()
+    public void beginBatch()
     {
-        countsValid = true;
+        batches.set(new int[counts.length()]);
+    }
+
+    /**
+     * Add the changes collected in the batch of the current thread to the counts, see beginBatch.
+     */
+    public void endBatch()
+    {
+        int[] batch = batches.get();
+        batches.remove();
+        for (int i = 0; i < batch.length; i++) {
+            if (batch[i] != 0) {
+                counts.addAndGet(i, batch[i]);
+            }
+        }
+    }
+
+    /**
+     * Reset all counts to zero, e.g. when the field has been emptied.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
     }
 
     /**
@@ -108,48 +223,78 @@ public class FieldStats
      * I.e., should it continue to run.
      * @return true If there is more than one species alive.
      */
-    public boolean isViable(Field field)
+    public boolean isViable()
+    {
+        return isViable(new int[seen.length]);
+    }
+
+    /**
+     * Determine whether the simulation is still viable, counting entities that are simulated outside of the field
+     * as well, e.g. by a LevelOfDetailEngine.
+     * @param otherCounts The number of entities of each species outside of the field, by the ordinal of the species.
+     * @return true If there is more than one species alive.
+     */
+    public boolean isViable(int[] otherCounts)
     {
         // How many counts are non-zero.
         int nonZero = 0;
-        if(!countsValid) {
-            generateCounts(field);
-        }
-        for(Class key : counters.keySet()) {
-            Counter info = counters.get(key);
-            if(info.getCount() > 0) {
+        for (int species = 0; species < seen.length; species++) {
+            if (getCount(species) + otherCounts[species] > 0) {
                 nonZero++;
             }
         }
         return nonZero > 1;
     }
-    
-    /**
-     * Generate counts of the number of foxes and rabbits.
-     * These are not kept up to date as foxes and rabbits
-     * are placed in the field, but only when a request
-     * is made for the information.
-     * @param field The field to generate the stats for.
-     */
-    public void generateCounts(Field field)
-    {
-        reset();
-        for (int level = 0; level < field.getHeight(); level++) {
-            for (int row = 0; row < field.getDepth(); row++) {
-                for (int col = 0; col < field.getWidth(); col++) {
-                    Entity entity = field.getEntityAt(row, col, level);
-                    if (entity != null) {
-                        if(col < field.getWidth()/3) {
-                            incrementCount(entity.getClass(), "Savanna");
-                        } else if(col < (field.getWidth()/3)*2 && col > field.getWidth()/3) {
-                            incrementCount(entity.getClass(), "Forest");
-                        } else {
-                            incrementCount(entity.getClass(), "Desert");
-                        }
-                    }
-                }
+
+    /**
+     * Return the index of an environment in ENVIRONMENTS.
+     * @param environment The name of the environment.
+     * @return The index, or -1 if the name is unknown.
+     */
+    private static int environmentIndex(String environment)
+    {
+        for (int i = 0; i < ENVIRONMENTS.length; i++) {
+            if (ENVIRONMENTS[i].equals(environment)) {
+                return i;
             }
         }
-        countsValid = true;
+        return -1;
+    }
+
+    /**
+     * Return the number of environments the counts are split into.
+     * @return The number of environments.
+     */
+    public static int getEnvironmentCount()
+    {
+        return ENVIRONMENTS.length;
+    }
+
+    /**
+     * Return the index of the environment a column is counted in, e.g. to keep counts of one's own by environment.
+     * @param col The column.
+     * @param width The width of the field.
+     * @return The index, less than getEnvironmentCount.
+     */
+    public static int getEnvironmentIndex(int col, int width)
+    {
+        return environmentIndex(getEnvironment(col, width));
+    }
+
+    /**
+     * Return the environment a column is counted in.
+     * @param col The column.
+     * @param width The width of the field.
+     * @return The name of the environment.
+     */
+    public static String getEnvironment(int col, int width)
+    {
+        if(col < width/3) {
+            return "Savanna";
+        } else if(col < (width/3)*2 && col > width/3) {
+            return "Forest";
+        } else {
+            return "Desert";
+        }
     }
 }
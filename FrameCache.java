@@ -0,0 +1,223 @@
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+
+/**
+ * Class FrameCache - Keeps steps of the history as images that are ready to be displayed, so that scrubbing through
+ * the timeline stays smooth. A background worker decodes the steps around the cursor in both directions, so it does
+ * not matter how the history stores them. The least recently used steps are dropped once the cache grows beyond
+ * MAX_BYTES.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class FrameCache {
+
+    private static final int PREFETCH_RADIUS = 20; // The number of steps materialised on each side of the cursor.
+    private static final long MAX_BYTES = 32L * 1024 * 1024; // The maximum size of all cached steps.
+
+    // The order in which the levels are painted, see Field.getObjectOnTop.
+    private static final int[] PAINT_ORDER = {3, 1, 2, 0};
+
+    private final History history;
+    private History.Decoder decoder; // Only used by the worker.
+    private int decoderGeneration; // The generation of the cache the decoder has been created for.
+    private final SimulatorView view;
+    private final int depth;
+    private final int width;
+    private final int[] colors; // The color of each species code.
+
+    private final LinkedHashMap<Integer, CachedFrame> frames; // The cached steps, least recently used first.
+    private long bytes; // The size of all cached steps.
+
+    private final ExecutorService worker;
+    private volatile int cursor; // The step currently looked at.
+    private volatile int generation; // Increased when the history is cleared, so outdated work is dropped.
+
+    /**
+     * Create an empty cache for the given history.
+     * @param history The history to materialise the steps of.
+     * @param view The view the steps are displayed in. Also provides the colors of the species.
+     * @param field The field the history is recorded from.
+     */
+    public FrameCache(History history, SimulatorView view, Field field)
+    {
+        this.view = view;
+        this.history = history;
+        decoder = history.decoder();
+        depth = field.getDepth();
+        width = field.getWidth();
+        colors = new int[History.getSpeciesCount()];
+        for (byte code = 0; code < colors.length; code++) {
+            colors[code] = view.getColor(History.getSpecies(code)).getRGB();
+        }
+        frames = new LinkedHashMap<>(16, 0.75f, true);
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Frame cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Return a cached step.
+     * @param step The step.
+     * @return The cached step, or null if it has not been materialised yet.
+     */
+    public synchronized CachedFrame get(int step)
+    {
+        return frames.get(step);
+    }
+
+    /**
+     * Move the cursor to the given step. The worker then materialises the steps around it, nearest first. If the
+     * step itself was not cached, it is shown in the view as soon as it is ready, unless the cursor has moved on.
+     * @param step The step looked at.
+     */
+    public void moveCursor(int step)
+    {
+        cursor = step;
+        final int currentGeneration = generation;
+        worker.execute(() -> prefetch(step, currentGeneration));
+    }
+
+    /**
+     * Remove all cached steps, e.g. because the history has been cleared.
+     */
+    public synchronized void clear()
+    {
+        generation++;
+        frames.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Materialise the steps around the given one, as long as the cursor stays there.
+     * @param step The step at the cursor when the work was requested.
+     * @param workGeneration The generation of the cache when the work was requested.
+     */
+    private void prefetch(int step, int workGeneration)
+    {
+        for (int distance = 0; distance <= PREFETCH_RADIUS; distance++) {
+            for (int next : new int[] {step + distance, step - distance}) {
+                if (cursor != step || generation != workGeneration) {
+                    return; // The user has moved on.
+                }
+                if (next < 0 || get(next) != null) {
+                    continue;
+                }
+                if (decoderGeneration != workGeneration) {
+                    // The codes the decoder holds may belong to the world the history was cleared of.
+                    decoder = history.decoder();
+                    decoderGeneration = workGeneration;
+                }
+                CachedFrame frame = materialise(next);
+                if (frame == null) {
+                    continue; // Not recorded.
+                }
+                put(next, frame, workGeneration);
+                if (distance == 0) {
+                    SwingUtilities.invokeLater(() -> {
+                        if (cursor == step) {
+                            view.showFrame(step, frame.getImage(), frame.getPopulation());
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a materialised step and drop the least recently used ones if the cache has become too big.
+     * @param step The step.
+     * @param frame The materialised step.
+     * @param workGeneration The generation of the cache the step was materialised for.
+     */
+    private synchronized void put(int step, CachedFrame frame, int workGeneration)
+    {
+        if (generation != workGeneration) {
+            return;
+        }
+        frames.put(step, frame);
+        bytes += frame.getBytes();
+        Iterator<Map.Entry<Integer, CachedFrame>> it = frames.entrySet().iterator();
+        while (bytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<Integer, CachedFrame> eldest = it.next();
+            if (eldest.getKey() != step) {
+                bytes -= eldest.getValue().getBytes();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Decode a step of the history into an image with one pixel per cell and its population statistics.
+     * @param step The step.
+     * @return The materialised step, or null if the step has not been recorded.
+     */
+    private CachedFrame materialise(int step)
+    {
+        byte[] codes = decoder.decode(step);
+        if (codes == null) {
+            return null;
+        }
+        int levelSize = depth * width;
+        BufferedImage image = new BufferedImage(width, depth, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[levelSize];
+        FieldStats stats = new FieldStats(width);
+        for (int cell = 0; cell < levelSize; cell++) {
+            byte top = 0;
+            for (int level : PAINT_ORDER) {
+                if (top == 0 && level * levelSize < codes.length) {
+                    top = codes[level * levelSize + cell];
+                }
+            }
+            pixels[cell] = colors[top];
+        }
+        stats.addCodes(codes);
+        image.setRGB(0, 0, width, depth, pixels, 0, width);
+        return new CachedFrame(image, stats.getPopulationDetails());
+    }
+
+    /**
+     * A step of the history that is ready to be displayed.
+     */
+    public static class CachedFrame
+    {
+        private final BufferedImage image;
+        private final String population;
+
+        /**
+         * Create a materialised step.
+         * @param image The image of the field, one pixel per cell.
+         * @param population The description of the population.
+         */
+        public CachedFrame(BufferedImage image, String population)
+        {
+            this.image = image;
+            this.population = population;
+        }
+
+        /**
+         * @return The image of the field, one pixel per cell.
+         */
+        public BufferedImage getImage() { return image; }
+
+        /**
+         * @return The description of the population.
+         */
+        public String getPopulation() { return population; }
+
+        /**
+         * @return The approximate size of this step in bytes.
+         */
+        public long getBytes()
+        {
+            return 4L * image.getWidth() * image.getHeight() + 2L * population.length() + 64;
+        }
+    }
+}
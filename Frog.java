@@ -7,7 +7,7 @@ import java.util.List;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public class Frog extends Animal
+public final class Frog extends Animal
 {
     // Characteristics shared by all frogs (class variables).
     private static final int BREEDING_AGE = AnimalStats.FROG.getBreedingAge();
@@ -31,11 +31,24 @@ public class Frog extends Animal
 
     public Frog(Field field, Location location, double size, double scent) {
         super(field, location);
-        age = 0;
-        energyLevel = MAX_ENERGY;
-        this.size = getMutationValue(size);
-        this.scent = getMutationValue(scent);
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(0);
+        setEnergyLevel(MAX_ENERGY);
+        setSize(getMutationValue(size));
+        setScent(getMutationValue(scent));
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
+    }
+
+    /**
+     * Create a frog of the given sex without drawing from the randomizer, e.g. when it is restored from a history
+     * frame. The rest of its state is expected to be set afterwards.
+     * @param field    The field currently occupied.
+     * @param location The location within the field.
+     * @param sex      The sex of the frog. True is male.
+     */
+    public Frog(Field field, Location location, boolean sex)
+    {
+        super(field, location, sex);
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -47,12 +60,12 @@ public class Frog extends Animal
     {
         super(field, location);
 
-        age = rand.nextInt(MAX_AGE);
-        energyLevel = rand.nextInt(MAX_ENERGY);
-        availableForCoitus = rand.nextBoolean();
-        size = AnimalStats.LION.getDefaultSize();
-        scent = AnimalStats.LION.getDefaultScent();
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(rand.nextInt(MAX_AGE));
+        setEnergyLevel(rand.nextInt(MAX_ENERGY));
+        setAvailableForCoitus(rand.nextBoolean());
+        setSize(AnimalStats.LION.getDefaultSize());
+        setScent(AnimalStats.LION.getDefaultScent());
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -66,7 +79,7 @@ public class Frog extends Animal
         super.act(newFrogs, currentTime);
         if (isAwake(currentTime)) {
             if (isAlive()) {
-                if (sex && foundMate((int) scent)) {
+                if (getSex() && foundMate((int) getScent())) {
                     giveBirth(newFrogs);
                 }
                 // Try to move into a free location.
@@ -88,17 +101,39 @@ public class Frog extends Animal
      */
     private void eatBugs()
     {
-        if (energyLevel < MAX_ENERGY)
-            energyLevel += rand.nextInt(5);
+        if (getEnergyLevel() < MAX_ENERGY)
+            setEnergyLevel(getEnergyLevel() + rand.nextInt(5));
+    }
+
+    /**
+     * Decide where this frog wants to move. Frogs do not hunt, they move to a free adjacent location.
+     * @param intent The intent to fill in.
+     */
+    @Override
+    protected void planMove(Intent intent)
+    {
+        intent.setMoves(getField().getFreeAdjacentLocations(getLocation()));
+    }
+
+    /**
+     * Eat bugs at the new location.
+     */
+    @Override
+    protected void afterMove()
+    {
+        eatBugs();
     }
 
 
     /**
-     * Updates the frog's nutrition value, depending on its age.
+     * Returns the frog's nutrition value at the given age.
+     * @param age The age.
+     * @return The food value.
      */
-    protected void updateFoodValue()
+    @Override
+    protected int getFoodValueAt(int age)
     {
-        foodValue = (int) Math.round(3*Math.log(age)); //log grows fast in the beginning and slower at later stages
+        return (int) Math.round(3*Math.log(age)); //log grows fast in the beginning and slower at later stages
     }
 
     /**
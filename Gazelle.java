@@ -7,7 +7,7 @@ import java.util.List;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public class Gazelle extends Animal
+public final class Gazelle extends Animal
 {
     // Characteristics shared by all gazelles (class variables).
     private static final int BREEDING_AGE = AnimalStats.GAZELLE.getBreedingAge();  // The age at which a gazelle can start to breed.
@@ -31,11 +31,24 @@ public class Gazelle extends Animal
      */
     public Gazelle(Field field, Location location, double size, double scent) {
         super(field, location);
-        age = 0;
-        energyLevel = MAX_ENERGY;
-        this.size = getMutationValue(size);
-        this.scent = getMutationValue(scent);
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(0);
+        setEnergyLevel(MAX_ENERGY);
+        setSize(getMutationValue(size));
+        setScent(getMutationValue(scent));
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
+    }
+
+    /**
+     * Create a gazelle of the given sex without drawing from the randomizer, e.g. when it is restored from a history
+     * frame. The rest of its state is expected to be set afterwards.
+     * @param field    The field currently occupied.
+     * @param location The location within the field.
+     * @param sex      The sex of the gazelle. True is male.
+     */
+    public Gazelle(Field field, Location location, boolean sex)
+    {
+        super(field, location, sex);
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -47,12 +60,12 @@ public class Gazelle extends Animal
     {
         super(field, location);
 
-        age = rand.nextInt(MAX_AGE);
-        energyLevel = rand.nextInt(MAX_ENERGY);
-        availableForCoitus = rand.nextBoolean();
-        size = AnimalStats.LION.getDefaultSize();
-        scent = AnimalStats.LION.getDefaultScent();
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(rand.nextInt(MAX_AGE));
+        setEnergyLevel(rand.nextInt(MAX_ENERGY));
+        setAvailableForCoitus(rand.nextBoolean());
+        setSize(AnimalStats.LION.getDefaultSize());
+        setScent(AnimalStats.LION.getDefaultScent());
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
     
     /**
@@ -66,7 +79,7 @@ public class Gazelle extends Animal
         super.act(newGazelles, currentTime);
         if (isAwake(currentTime)) {
             if (isAlive()) {
-                if (sex && foundMate((int) scent)) {
+                if (getSex() && foundMate((int) getScent())) {
                     giveBirth(newGazelles);
                 }
                 // Move towards a source of food if found.
@@ -88,11 +101,14 @@ public class Gazelle extends Animal
 
 
     /**
-     * Updates the gazelle's foodValue, depending on its age.
+     * Returns the gazelle's nutrition value at the given age.
+     * @param age The age.
+     * @return The food value.
      */
-    protected void updateFoodValue()
+    @Override
+    protected int getFoodValueAt(int age)
     {
-        foodValue = (int) Math.round(2*Math.log(Math.pow(age, 2))); //log grows fast in the beginning and slower at later stages
+        return (int) Math.round(2*Math.log(Math.pow(age, 2))); //log grows fast in the beginning and slower at later stages
     }
 
     /**
@@ -7,7 +7,7 @@ import java.util.List;
  * @version 2021-03-02
  */
 
-public class Grass extends Plant {
+public final class Grass extends Plant {
 
 
     private static final int MAX_AGE = PlantStats.GRASS.getMaxAge();
@@ -29,14 +29,22 @@ public class Grass extends Plant {
     public Grass(boolean randomAge, Field field, Location location)
     {
         super(field, location);
-        updateFoodValue();
-        age = 0;
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        initSeed();
         if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
+            setAge(rand.nextInt(MAX_AGE));
         }
     }
 
+    /**
+     * Set the state of a new seed.
+     */
+    private void initSeed()
+    {
+        updateFoodValue();
+        setAge(0);
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
+    }
+
     /**
      * Calls the act method of the superclass. Also calls makes the grass propagate if it is alive after the act.
      * @param newGrass A list to add new growing seeds to.
@@ -53,23 +61,45 @@ public class Grass extends Plant {
     }
 
     /**
-     * Updates the grass's nutrition value, depending on its age.
+     * Decide where this grass wants to put new seeds.
+     * @param intent The intent to fill in.
+     * @param currentTime The current time
      */
-    protected void updateFoodValue()
+    @Override
+    protected void plan(Intent intent, int currentTime)
     {
-        foodValue = (int) Math.round(2*Math.log(age)); //log grows fast in the beginning and slower at later stages, mimics the growth of real grass.
+        if (isAwake(currentTime) && isAlive()) {
+            List<Location> free = getField().getFreeAdjacentLocations(getLocation());
+            intent.setBirths(free, breed());
+        }
     }
 
     /**
-     * Returns the nutrition value that the animal receives when it eats the grass
-     * @return the food value
+     * Create a new seed of grass, reusing dead grass if there is any.
+     * @param location The location of the seed.
+     * @return The seed.
      */
-    public int getFoodValue()
+    @Override
+    protected Entity createYoung(Location location)
     {
-        return foodValue;
+        Grass seed = (Grass) reuse(getField(), location);
+        if (seed == null) {
+            return new Grass(false, getField(), location);
+        }
+        seed.initSeed();
+        return seed;
     }
 
-
+    /**
+     * Returns the grass's nutrition value at the given age.
+     * @param age The age.
+     * @return The food value.
+     */
+    @Override
+    protected int getFoodValueAt(int age)
+    {
+        return (int) Math.round(2*Math.log(age)); //log grows fast in the beginning and slower at later stages, mimics the growth of real grass.
+    }
 
     /**
      * Check whether or not this grass can propagate at this step
@@ -85,8 +115,7 @@ public class Grass extends Plant {
         int births = breed();
         for(int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
-            Grass seed = new Grass(false, field, loc);
-            newRabbits.add(seed);
+            newRabbits.add(createYoung(loc));
         }
     }
 
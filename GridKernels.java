@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+/**
+ * Class GridKernels - Bulk passes over the primitive planes of the grid: a level of the history, the free cells of a
+ * level in the plant engine or the ages of a page of the entity store. Each plane is a flat array with one element
+ * per cell, row after row.
+ * Where possible the passes are plain counted loops over whole rows without calls or branches in their bodies. The
+ * just-in-time compiler turns loops of that shape into SIMD instructions on its own (superword vectorisation) where
+ * the processor supports them, and into tight scalar loops otherwise.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class GridKernels {
+
+    /**
+     * Add a value to a range of a plane.
+     * @param plane The plane.
+     * @param from The first index.
+     * @param to The index after the last one.
+     * @param value The value to add.
+     */
+    public static void add(int[] plane, int from, int to, int value)
+    {
+        for (int i = from; i < to; i++) {
+            plane[i] += value;
+        }
+    }
+
+    /**
+     * XOR a plane into another one.
+     * @param target The plane to change.
+     * @param source The plane to XOR into it, at least as long as the target.
+     */
+    public static void xor(byte[] target, byte[] source)
+    {
+        for (int i = 0; i < target.length; i++) {
+            target[i] ^= source[i];
+        }
+    }
+
+    /**
+     * XOR a value into a range of a plane.
+     * @param plane The plane.
+     * @param from The first index.
+     * @param to The index after the last one.
+     * @param value The value.
+     */
+    public static void xor(byte[] plane, int from, int to, byte value)
+    {
+        for (int i = from; i < to; i++) {
+            plane[i] ^= value;
+        }
+    }
+
+    /**
+     * Count how often each value occurs in a range of a plane of small non-negative values.
+     * @param plane The plane.
+     * @param from The first index.
+     * @param to The index after the last one.
+     * @param counts The counts to add to, by value. Must be longer than the largest value.
+     */
+    public static void histogram(byte[] plane, int from, int to, int[] counts)
+    {
+        for (int i = from; i < to; i++) {
+            counts[plane[i]]++;
+        }
+    }
+
+    /**
+     * Count, for every cell, the set cells of a mask within a square around it. The square reaches the given
+     * distance in each direction and is clipped at the edges of the grid. The two dimensions are summed separately
+     * with a sliding window, so the cost does not depend on the distance.
+     * @param mask The mask, one element per cell.
+     * @param depth The number of rows.
+     * @param width The number of columns.
+     * @param reach The distance the square reaches, at least zero.
+     * @param counts The plane to write the counts to.
+     */
+    public static void countWithinReach(boolean[] mask, int depth, int width, int reach, int[] counts)
+    {
+        // The sums along each row, in a plane of their own.
+        int[] rowSums = new int[depth * width];
+        for (int row = 0; row < depth; row++) {
+            int start = row * width;
+            int sum = 0;
+            for (int col = 0; col < Math.min(reach, width); col++) {
+                sum += mask[start + col] ? 1 : 0;
+            }
+            for (int col = 0; col < width; col++) {
+                if (col + reach < width) {
+                    sum += mask[start + col + reach] ? 1 : 0;
+                }
+                if (col - reach - 1 >= 0) {
+                    sum -= mask[start + col - reach - 1] ? 1 : 0;
+                }
+                rowSums[start + col] = sum;
+            }
+        }
+        // The sums of the row sums along each column, a whole row of the plane at a time.
+        Arrays.fill(counts, 0, depth * width, 0);
+        for (int row = 0; row < Math.min(reach, depth); row++) {
+            addRow(counts, 0, rowSums, row * width, width);
+        }
+        for (int row = 0; row < depth; row++) {
+            if (row > 0) {
+                System.arraycopy(counts, (row - 1) * width, counts, row * width, width);
+            }
+            if (row + reach < depth) {
+                addRow(counts, row * width, rowSums, (row + reach) * width, width);
+            }
+            if (row - reach - 1 >= 0) {
+                subtractRow(counts, row * width, rowSums, (row - reach - 1) * width, width);
+            }
+        }
+    }
+
+    /**
+     * Add a row of one plane to a row of another one.
+     * @param target The plane to change.
+     * @param targetStart The index of the first cell of its row.
+     * @param source The plane to add.
+     * @param sourceStart The index of the first cell of its row.
+     * @param width The number of cells in a row.
+     */
+    private static void addRow(int[] target, int targetStart, int[] source, int sourceStart, int width)
+    {
+        for (int col = 0; col < width; col++) {
+            target[targetStart + col] += source[sourceStart + col];
+        }
+    }
+
+    /**
+     * Subtract a row of one plane from a row of another one.
+     * @param target The plane to change.
+     * @param targetStart The index of the first cell of its row.
+     * @param source The plane to subtract.
+     * @param sourceStart The index of the first cell of its row.
+     * @param width The number of cells in a row.
+     */
+    private static void subtractRow(int[] target, int targetStart, int[] source, int sourceStart, int width)
+    {
+        for (int col = 0; col < width; col++) {
+            target[targetStart + col] -= source[sourceStart + col];
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class GridKernelsBenchmark - Compares the bulk passes of GridKernels with the cell-by-cell loops they replace, on
+ * planes of the size of a large field. Run it with the width and depth of the field as arguments, e.g.
+ * "java GridKernelsBenchmark 1000 1000". Every pass is run several times so that it is compiled, and the best time is
+ * reported.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class GridKernelsBenchmark {
+
+    private static final int RUNS = 15;
+    private static final int REACH = 2; // The reach of the plants the free cells are counted for.
+    private static long sink; // Keeps the compiler from dropping the results.
+
+    /**
+     * Run the benchmark.
+     * @param args The width and depth of the planes, 1000 by 1000 if not given.
+     */
+    public static void main(String[] args)
+    {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int cells = width * depth;
+        Random rand = new Random(42);
+        boolean[] free = new boolean[cells];
+        byte[] codes = new byte[cells * SpeciesRegistry.getLevelCount()];
+        for (int i = 0; i < cells; i++) {
+            free[i] = rand.nextDouble() < 0.3;
+        }
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = rand.nextDouble() < 0.7 ? 0 : (byte) (1 + rand.nextInt(SpeciesRegistry.getSpeciesCount()));
+        }
+        System.out.printf("Planes of %d x %d cells, best of %d runs%n", width, depth, RUNS);
+
+        int[] counts = new int[cells];
+        int[] expected = new int[cells];
+        double cellByCell = time(() -> countCellByCell(free, depth, width, expected));
+        double kernel = time(() -> GridKernels.countWithinReach(free, depth, width, REACH, counts));
+        report("Free cells within reach " + REACH, cellByCell, kernel, Arrays.equals(counts, expected));
+
+        String[] stats = new String[2];
+        cellByCell = time(() -> {
+            FieldStats fieldStats = new FieldStats(width);
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] != 0) {
+                    fieldStats.add(codes[i] - 1, i % width);
+                }
+            }
+            stats[0] = fieldStats.getPopulationDetails();
+        });
+        kernel = time(() -> {
+            FieldStats fieldStats = new FieldStats(width);
+            fieldStats.addCodes(codes);
+            stats[1] = fieldStats.getPopulationDetails();
+        });
+        report("Species counts of a frame", cellByCell, kernel, stats[0].equals(stats[1]));
+
+        int[] ages = new int[cells];
+        byte[] flags = new byte[cells];
+        for (int i = 0; i < cells; i++) {
+            flags[i] = (byte) (rand.nextDouble() < 0.5 ? 1 : 0);
+        }
+        cellByCell = time(() -> {
+            for (int i = 0; i < ages.length; i++) {
+                if (flags[i] != 0) {
+                    ages[i] += 3;
+                }
+            }
+        });
+        kernel = time(() -> GridKernels.add(ages, 0, ages.length, 3));
+        report("Ageing a plane", cellByCell, kernel, true);
+        if (sink == 42) {
+            System.out.println(sink);
+        }
+    }
+
+    /**
+     * Count the free cells within reach of every cell the way the plant engine used to, adding every free cell to
+     * the square around it.
+     * @param free The free cells.
+     * @param depth The number of rows.
+     * @param width The number of columns.
+     * @param counts The plane to write the counts to.
+     */
+    private static void countCellByCell(boolean[] free, int depth, int width, int[] counts)
+    {
+        Arrays.fill(counts, 0);
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                if (free[row * width + col]) {
+                    for (int r = Math.max(0, row - REACH); r <= Math.min(depth - 1, row + REACH); r++) {
+                        for (int c = Math.max(0, col - REACH); c <= Math.min(width - 1, col + REACH); c++) {
+                            counts[r * width + c]++;
+                        }
+                    }
+                }
+            }
+        }
+        sink += counts[counts.length / 2];
+    }
+
+    /**
+     * Run a pass several times.
+     * @param pass The pass.
+     * @return The best time of a run in milliseconds.
+     */
+    private static double time(Runnable pass)
+    {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            pass.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    /**
+     * Print the times of a pass.
+     * @param name The name of the pass.
+     * @param cellByCell The time of the cell-by-cell loop in milliseconds.
+     * @param kernel The time of the kernel in milliseconds.
+     * @param same If both gave the same result.
+     */
+    private static void report(String name, double cellByCell, double kernel, boolean same)
+    {
+        System.out.printf("%-28s cell by cell %8.2f ms, kernel %8.2f ms, %5.1fx%s%n", name, cellByCell, kernel,
+                cellByCell / kernel, same ? "" : " (results differ!)");
+    }
+}
@@ -0,0 +1,1043 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.NotificationEmitter;
+
+/**
+ * Class History - Stores the state of the field at every step so that the simulation can be rewound.
+ * Each step is recorded as a frame holding a species code for every cell of the field and the packed state of the
+ * entities in it. Consecutive frames are nearly identical, so a background thread compresses every frame after it
+ * has been recorded: the species codes are stored as a run-length encoded XOR against the previous frame, with a
+ * full keyframe every KEYFRAME_INTERVAL frames. The state of each entity is stored as the difference to the state of
+ * the entity of the same species in the same cell of the keyframe, if there is one, so that an entity that has only
+ * aged differs by the same small amount as its neighbours. The differences are grouped by species and by byte of the
+ * state before they are run-length encoded, which puts those equal amounts next to each other.
+ * When the heap runs low, old frames are shed: first every other frame is dropped, then all but the keyframes and
+ * finally the oldest half of the history. A single listener on the memory of the JVM sheds the frames of every
+ * history that asked for it, and holds the histories weakly, so that a discarded simulation can still be collected.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class History {
+
+    private static final int KEYFRAME_INTERVAL = 32; // Every this many frames the codes are stored without a reference.
+    private static final double MEMORY_THRESHOLD = 0.8; // The share of the heap in use at which frames are shed.
+    private static final int RECENT_FRAMES = 2 * KEYFRAME_INTERVAL; // The latest frames, which are never shed.
+
+    // The histories that shed frames when the heap runs low, see shedOnLowMemory.
+    private static final List<WeakReference<History>> shedding = new ArrayList<>();
+    private static boolean listeningToMemory; // If the listener on the memory of the JVM has been added.
+
+    // The code stored for each species is its ordinal in the SpeciesRegistry plus one. 0 represents an empty cell.
+
+    private final List<Frame> frames; // The recorded frames, ordered by their step.
+    private byte[] lastRecordedCodes; // The codes of the latest frame, the reference for the next one.
+    private int[] lastRecordedRegion; // The part of the field the latest frame has recorded, see record.
+    private Frame lastKeyframe; // The keyframe the state of the next frames is stored against.
+    private byte[] lastKeyframeCodes;
+    private byte[] lastKeyframeState;
+    private int[] lastKeyframeRegion;
+    private final int[] stateSizes; // The size of the packed state of an entity of each species in bytes.
+    private int framesSinceKeyframe;
+    private int sheddingLevel; // How often frames have been shed because the heap ran low.
+    private volatile Runnable shedListener; // Called after frames have been shed because the heap ran low, or null.
+
+    // Compresses the frames in the order they were recorded.
+    private final ExecutorService compressor;
+
+    // Decodes the frames that are restored. Rewinding step by step only has to apply a single XOR to its codes.
+    private final Decoder restoreDecoder;
+    private List<Entity> restoredEntities; // The entities recreated by the last restore, see restore.
+
+    // Statistics
+    private final AtomicLong rawBytes;
+    private final AtomicLong compressedBytes;
+    private long decodeNanos;
+    private int decodeCount;
+
+    /**
+     * Create an empty history.
+     */
+    public History()
+    {
+        frames = new ArrayList<>();
+        stateSizes = new int[SpeciesRegistry.getSpeciesCount()];
+        rawBytes = new AtomicLong();
+        compressedBytes = new AtomicLong();
+        compressor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "History compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        restoreDecoder = new Decoder(true);
+        clear();
+    }
+
+    /**
+     * Remove all frames from the history.
+     */
+    public synchronized void clear()
+    {
+        frames.clear();
+        lastRecordedCodes = null;
+        lastRecordedRegion = null;
+        lastKeyframe = null;
+        lastKeyframeCodes = null;
+        lastKeyframeState = null;
+        lastKeyframeRegion = null;
+        framesSinceKeyframe = 0;
+        sheddingLevel = 0;
+        rawBytes.set(0);
+        compressedBytes.set(0);
+        decodeNanos = 0;
+        decodeCount = 0;
+        restoredEntities = null;
+    }
+
+    /**
+     * Record the state of the field as the frame of the given step. The step has to follow the latest recorded one.
+     * The frame is compressed in the background afterwards.
+     * @param step The step the field belongs to.
+     * @param field The field to record.
+     */
+    public void record(int step, Field field)
+    {
+        record(step, field, new int[] {0, 0, field.getDepth(), field.getWidth()});
+    }
+
+    /**
+     * Record the state of a part of the field as the frame of the given step, see record. The rest of the field must
+     * be empty, e.g. because it is aggregated by a LevelOfDetailEngine, so that only the part has to be looked at.
+     * The frame is compressed by looking at the part and at the parts of the frames it is stored against only, as the
+     * cells outside of them are empty in every one of these frames. Only the array of codes, which is cleared when it
+     * is created, stays as large as the field.
+     * @param step The step the field belongs to.
+     * @param field The field to record.
+     * @param region The first row, the first column, the row after the last and the column after the last of the part.
+     */
+    public void record(int step, Field field, int[] region)
+    {
+        int levelSize = field.getDepth() * field.getWidth();
+        byte[] codes = new byte[levelSize * field.getHeight()];
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(state);
+        try {
+            for (int level = 0; level < field.getHeight(); level++) {
+                for (int row = region[0]; row < region[2]; row++) {
+                    for (int col = region[1]; col < region[3]; col++) {
+                        Entity entity = field.getEntityAt(row, col, level);
+                        if (entity != null) {
+                            codes[level * levelSize + row * field.getWidth() + col] = (byte) (entity.getSpeciesOrdinal() + 1);
+                            int start = out.size();
+                            entity.writeState(out);
+                            stateSizes[entity.getSpeciesOrdinal()] = out.size() - start;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not record the step " + step, e);
+        }
+
+        Frame frame;
+        byte[] packedState = state.toByteArray();
+        final byte[] reference;
+        final byte[] keyframeCodes;
+        final byte[] keyframeState;
+        final int[] codeCells; // The cells that can differ from the previous frame.
+        final int[] stateCells; // The cells that can hold an entity of this frame or of its keyframe.
+        synchronized (this) {
+            boolean keyframe = frames.isEmpty() || framesSinceKeyframe == KEYFRAME_INTERVAL - 1;
+            framesSinceKeyframe = keyframe ? 0 : framesSinceKeyframe + 1;
+            frame = new Frame(step, keyframe ? -1 : getLatestStep(), keyframe ? null : lastKeyframe, codes, packedState);
+            frames.add(frame);
+            reference = lastRecordedCodes;
+            codeCells = cellsOf(keyframe ? region : union(region, lastRecordedRegion), field);
+            lastRecordedCodes = codes;
+            lastRecordedRegion = region.clone();
+            if (keyframe) {
+                lastKeyframe = frame;
+                lastKeyframeCodes = codes;
+                lastKeyframeState = packedState;
+                lastKeyframeRegion = lastRecordedRegion;
+            }
+            keyframeCodes = frame.isKeyframe() ? null : lastKeyframeCodes;
+            keyframeState = frame.isKeyframe() ? null : lastKeyframeState;
+            stateCells = cellsOf(union(region, lastKeyframeRegion), field);
+        }
+        compressor.execute(() -> {
+            byte[] compressedState = encodeState(keyframeCodes, keyframeState, codes, packedState, stateCells);
+            frame.compress(reference, codeCells, compressedState);
+            rawBytes.addAndGet(frame.getRawSize());
+            compressedBytes.addAndGet(frame.getCompressedSize());
+        });
+    }
+
+    /**
+     * Wait until every frame recorded so far has been compressed, e.g. before the frames are decoded for a check.
+     */
+    public void awaitCompression()
+    {
+        try {
+            compressor.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not compress the frames", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The latest recorded step, or -1 if nothing has been recorded.
+     */
+    public synchronized int getLatestStep()
+    {
+        return frames.isEmpty() ? -1 : frames.get(frames.size() - 1).getStep();
+    }
+
+    /**
+     * @return The earliest recorded step.
+     */
+    public synchronized int getFirstStep()
+    {
+        return frames.isEmpty() ? 0 : frames.get(0).getStep();
+    }
+
+    /**
+     * Find the recorded step nearest to the given one. Steps may be missing after frames have been shed.
+     * @param step The desired step.
+     * @param later If a later step is preferred over an earlier one when the desired step is missing.
+     * @return The nearest recorded step in the preferred direction, or the nearest in the other direction if there is
+     * none.
+     */
+    public synchronized int findRecordedStep(int step, boolean later)
+    {
+        int index = indexOf(step);
+        if (index >= 0 || frames.isEmpty()) {
+            return step;
+        }
+        int insertion = -index - 1; // The index of the first frame after the step.
+        if ((later && insertion < frames.size()) || insertion == 0) {
+            return frames.get(insertion).getStep();
+        }
+        return frames.get(insertion - 1).getStep();
+    }
+
+    /**
+     * Shed old frames whenever the heap usage crosses MEMORY_THRESHOLD, instead of running out of memory.
+     * @param listener Called after frames have been shed, e.g. to tell the user how far back the history now goes.
+     */
+    public void shedOnLowMemory(Runnable listener)
+    {
+        synchronized (shedding) {
+            if (!listeningToMemory) {
+                listenToMemory();
+                listeningToMemory = true;
+            }
+            if (shedListener == null) {
+                shedding.add(new WeakReference<>(this));
+            }
+            shedListener = listener;
+        }
+    }
+
+    /**
+     * Stop shedding frames when the heap runs low, e.g. when the simulation is discarded.
+     */
+    public void stopShedding()
+    {
+        synchronized (shedding) {
+            shedding.removeIf(reference -> reference.get() == null || reference.get() == this);
+            shedListener = null;
+        }
+    }
+
+    /**
+     * Let the heap report when its usage crosses MEMORY_THRESHOLD, and shed the frames of every history that asked
+     * for it when it does. The listener only holds the histories weakly.
+     */
+    private static void listenToMemory()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax() > 0 ? pool.getUsage().getMax() : Runtime.getRuntime().maxMemory();
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()) {
+                pool.setUsageThreshold((long) (max * MEMORY_THRESHOLD));
+            }
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                pool.setCollectionUsageThreshold((long) (max * MEMORY_THRESHOLD));
+            }
+        }
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener((notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType())
+                    || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                shedAll();
+            }
+        }, null, null);
+    }
+
+    /**
+     * Shed the frames of every history that has asked for it and has not been collected yet, see shedOnLowMemory.
+     */
+    private static void shedAll()
+    {
+        List<History> histories = new ArrayList<>();
+        synchronized (shedding) {
+            for (Iterator<WeakReference<History>> it = shedding.iterator(); it.hasNext(); ) {
+                History history = it.next().get();
+                if (history == null) {
+                    it.remove(); // Its simulation has been discarded.
+                } else {
+                    histories.add(history);
+                }
+            }
+        }
+        for (History history : histories) {
+            Runnable listener = history.shedListener;
+            if (listener != null) {
+                history.shed();
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Shed old frames to free memory. Every call sheds more: first every other old frame is dropped, then every old
+     * frame except the keyframes and after that the oldest half of the history. The latest RECENT_FRAMES frames and
+     * frames that have not been compressed yet are kept.
+     */
+    public synchronized void shed()
+    {
+        sheddingLevel++;
+        int oldFrames = frames.size() - RECENT_FRAMES;
+        while (oldFrames > 0 && frames.get(oldFrames).getCompressedCodes() == null) {
+            oldFrames--; // The successor of a dropped frame must be compressed to merge into it.
+        }
+        if (oldFrames <= 0) {
+            return;
+        }
+        if (sheddingLevel > 2) {
+            // Drop the oldest half, up to a keyframe so the rest can still be decoded.
+            int keyframe = oldFrames / 2;
+            while (keyframe < oldFrames && !frames.get(keyframe).isKeyframe()) {
+                keyframe++;
+            }
+            for (Frame dropped : frames.subList(0, keyframe)) {
+                rawBytes.addAndGet(-dropped.getRawSize());
+                compressedBytes.addAndGet(-dropped.getCompressedSize());
+            }
+            frames.subList(0, keyframe).clear();
+            return;
+        }
+
+        List<Frame> kept = new ArrayList<>();
+        byte[] carry = null; // The XOR of the codes of the dropped frames since the last kept frame.
+        int carryReference = -1;
+        boolean dropNext = false;
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            boolean drop = false;
+            if (i > 0 && i < oldFrames && !frame.isKeyframe()) {
+                drop = sheddingLevel > 1 || dropNext;
+                dropNext = !dropNext;
+            }
+            if (drop) {
+                byte[] delta = new byte[frame.getCodeCount()];
+                applyRunLength(frame.getCompressedCodes(), delta, false);
+                if (carry == null) {
+                    carry = delta;
+                    carryReference = frame.getReferenceStep();
+                } else {
+                    GridKernels.xor(carry, delta);
+                }
+                rawBytes.addAndGet(-frame.getRawSize());
+                compressedBytes.addAndGet(-frame.getCompressedSize());
+            } else {
+                if (carry != null && !frame.isKeyframe()) {
+                    // The XOR against the previous frame of the dropped frames and this one combine into one.
+                    applyRunLength(frame.getCompressedCodes(), carry, true);
+                    Frame merged = new Frame(frame, carryReference, encodeRunLength(carry, null));
+                    compressedBytes.addAndGet(merged.getCompressedSize() - frame.getCompressedSize());
+                    frame = merged;
+                }
+                carry = null;
+                kept.add(frame);
+            }
+        }
+        frames.clear();
+        frames.addAll(kept);
+    }
+
+    /**
+     * Return the species stored for the given code in a decoded frame.
+     * @param code The code of a cell.
+     * @return The class of the species, or null if the cell is empty.
+     */
+    public static Class<? extends Entity> getSpecies(byte code)
+    {
+        return code == 0 ? null : SpeciesRegistry.getSpeciesClass(code - 1);
+    }
+
+    /**
+     * @return The number of species codes, including the code of empty cells.
+     */
+    public static int getSpeciesCount()
+    {
+        return SpeciesRegistry.getSpeciesCount() + 1;
+    }
+
+    /**
+     * Create a decoder for the frames of this history. A decoder is not thread safe, but every thread may use its own.
+     * @return A new decoder.
+     */
+    public Decoder decoder()
+    {
+        return new Decoder(false);
+    }
+
+    /**
+     * Restore the field to the state it had at the given step. The latest step is restored from the live entities,
+     * all earlier steps are decoded from their frames and the entities are recreated from their packed state. The
+     * entities recreated by the previous restore are removed from the entity store of the field.
+     * @param step The step to restore.
+     * @param field The field to put the entities into.
+     * @param liveEntities The entities of the latest step.
+     * @return The entities now in the field.
+     */
+    public List<Entity> restore(int step, Field field, List<Entity> liveEntities)
+    {
+        long start = System.nanoTime();
+        if (restoredEntities != null) {
+            for (Entity entity : restoredEntities) {
+                if (entity.getField() == field) { // A fork may have taken them over.
+                    entity.setDead();
+                }
+            }
+            field.getStore().recycle();
+            restoredEntities = null;
+        }
+        field.clear();
+        List<Entity> entities = liveEntities;
+        if (step == getLatestStep()) {
+            for (Entity entity : liveEntities) {
+                field.place(entity, entity.getLocation());
+            }
+        } else {
+            entities = materialise(step, field);
+            restoredEntities = entities;
+        }
+        decodeNanos += System.nanoTime() - start;
+        decodeCount++;
+        return entities;
+    }
+
+    /**
+     * Get the statistics of the history, e.g. to be displayed to the user.
+     * @return A string describing the compression ratio and the cost of restoring a step.
+     */
+    public String getStatistics()
+    {
+        double ratio = compressedBytes.get() == 0 ? 1 : (double) rawBytes.get() / compressedBytes.get();
+        double decodeMillis = decodeCount == 0 ? 0 : decodeNanos / 1e6 / decodeCount;
+        int size;
+        synchronized (this) {
+            size = frames.size();
+        }
+        String statistics = String.format("History: %d steps, compression ratio %.1f, %.2f ms per rewind step", size, ratio, decodeMillis);
+        if (sheddingLevel > 0) {
+            statistics += String.format(". Low memory: can rewind to step %d (%s)", getFirstStep(),
+                    sheddingLevel == 1 ? "every other old step" : "one in " + KEYFRAME_INTERVAL + " old steps");
+        }
+        return statistics;
+    }
+
+    /**
+     * Recreate the entities of a frame in the field.
+     * @param step The step of the frame.
+     * @param field The empty field to put the entities into.
+     * @return The recreated entities.
+     */
+    private List<Entity> materialise(int step, Field field)
+    {
+        List<Entity> entities = new ArrayList<>();
+        byte[] codes;
+        byte[] state;
+        synchronized (this) {
+            // Frames are shed on the thread that reports low memory, so the codes and the state are taken from the
+            // same frame while no frame can be dropped.
+            int recorded = findRecordedStep(step, false); // The frame may have been shed since the step was chosen.
+            codes = restoreDecoder.decode(recorded);
+            state = restoreDecoder.decodeState();
+        }
+        int levelSize = field.getDepth() * field.getWidth();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        try {
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] != 0) {
+                    int col = i % field.getWidth();
+                    int row = (i % levelSize) / field.getWidth();
+                    Entity entity = SpeciesRegistry.createForRestore(codes[i] - 1, field, new Location(row, col, i / levelSize));
+                    entity.readState(in);
+                    entities.add(entity);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not restore the step " + step, e);
+        }
+        return entities;
+    }
+
+    /**
+     * Find the frame of the given step.
+     * @param step The step.
+     * @return The frame, or null if the step has not been recorded.
+     */
+    private synchronized Frame findFrame(int step)
+    {
+        int index = indexOf(step);
+        return index < 0 ? null : frames.get(index);
+    }
+
+    /**
+     * Find the frame recorded right after the given step.
+     * @param step The step.
+     * @return The next frame, or null if there is none.
+     */
+    private synchronized Frame findNextFrame(int step)
+    {
+        int index = indexOf(step);
+        return index < 0 || index + 1 >= frames.size() ? null : frames.get(index + 1);
+    }
+
+    /**
+     * Return the frames needed to decode the given step: the nearest keyframe before it and every frame up to the step.
+     * @param step The step.
+     * @return The frames in order, or null if the step has not been recorded.
+     */
+    private synchronized List<Frame> findChain(int step)
+    {
+        int index = indexOf(step);
+        if (index < 0) {
+            return null;
+        }
+        int keyframe = index;
+        while (!frames.get(keyframe).isKeyframe()) {
+            keyframe--;
+        }
+        return new ArrayList<>(frames.subList(keyframe, index + 1));
+    }
+
+    /**
+     * Search for the index of the frame of the given step.
+     * @param step The step.
+     * @return The index of its frame, or a negative number if it has not been recorded.
+     */
+    private int indexOf(int step)
+    {
+        int low = 0;
+        int high = frames.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleStep = frames.get(middle).getStep();
+            if (middleStep < step) {
+                low = middle + 1;
+            } else if (middleStep > step) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the species codes of frames, and the packed state of the entities if asked to. Keeps the latest decoded
+     * frame, so that decoding an adjacent frame only has to apply a single XOR in either direction, and the codes and
+     * state of the latest keyframe the state has been decoded against.
+     */
+    public class Decoder
+    {
+        private byte[] codes; // The codes of the latest decoded frame.
+        // The latest decoded frame. The codes are only reused for the same frame, as the history may have been
+        // cleared and recorded again since, with other frames for the same steps.
+        private Frame decoded;
+        private final boolean decodesState; // If the decoder keeps the codes of keyframes for decodeState.
+        private Frame keyframe; // The latest keyframe the state has been decoded against.
+        private byte[] keyframeCodes;
+        private byte[] keyframeState;
+
+        /**
+         * Create a decoder.
+         * @param decodesState If the state of the entities is decoded as well, see decodeState.
+         */
+        private Decoder(boolean decodesState)
+        {
+            this.decodesState = decodesState;
+        }
+
+        /**
+         * Decode the packed state of the entities of the step decoded last, see decode. Only decoders that have been
+         * created for it can decode the state.
+         * @return The packed state of the entities in the order of their cells.
+         */
+        public byte[] decodeState()
+        {
+            if (!decodesState) {
+                throw new IllegalStateException("This decoder only decodes species codes");
+            }
+            Frame frame = decoded;
+            byte[] state = frame.getState();
+            if (state != null) { // Not compressed yet.
+                return state;
+            }
+            if (frame.isKeyframe()) {
+                return History.this.decodeState(frame.getCompressedState(), null, null, codes);
+            }
+            Frame reference = frame.getKeyframe();
+            if (reference != keyframe) {
+                keyframeCodes = new byte[reference.getCodeCount()];
+                byte[] raw = reference.getCodes();
+                if (raw != null) {
+                    System.arraycopy(raw, 0, keyframeCodes, 0, raw.length);
+                } else {
+                    applyRunLength(reference.getCompressedCodes(), keyframeCodes, false);
+                }
+                keyframeState = reference.getState();
+                if (keyframeState == null) {
+                    keyframeState = History.this.decodeState(reference.getCompressedState(), null, null, keyframeCodes);
+                }
+                keyframe = reference;
+            }
+            return History.this.decodeState(frame.getCompressedState(), keyframeCodes, keyframeState, codes);
+        }
+
+        /**
+         * Decode the species codes of the given step. The returned array is reused by the next call.
+         * @param targetStep The step to decode.
+         * @return The species code of every cell, or null if the step has not been recorded.
+         */
+        public byte[] decode(int targetStep)
+        {
+            Frame frame = findFrame(targetStep);
+            if (frame == null) {
+                return null;
+            }
+            byte[] raw = frame.getCodes();
+            Frame next = findNextFrame(targetStep);
+            if (raw != null) { // Not compressed yet.
+                codes = raw.clone();
+            } else if (codes != null && decoded == frame) {
+                return codes;
+            } else if (codes != null && !frame.isKeyframe() && findFrame(frame.getReferenceStep()) == decoded) {
+                applyRunLength(frame.getCompressedCodes(), codes, true);
+            } else if (codes != null && next != null && next == decoded && !next.isKeyframe()
+                    && next.getReferenceStep() == targetStep && next.getCompressedCodes() != null) {
+                // The XOR against the previous frame works in both directions.
+                applyRunLength(next.getCompressedCodes(), codes, true);
+            } else {
+                List<Frame> chain = findChain(targetStep);
+                codes = new byte[frame.getCodeCount()];
+                for (Frame link : chain) {
+                    byte[] linkCodes = link.getCodes();
+                    if (linkCodes != null) {
+                        System.arraycopy(linkCodes, 0, codes, 0, codes.length);
+                    } else {
+                        applyRunLength(link.getCompressedCodes(), codes, !link.isKeyframe());
+                    }
+                }
+            }
+            decoded = frame;
+            return codes;
+        }
+    }
+
+    /**
+     * Encode the packed state of the entities of a frame against the state of its keyframe. The state of each entity
+     * is replaced by its difference, byte by byte, to the state of the entity of the same species in the same cell of
+     * the keyframe, if there is one. The bytes are then grouped by species and by their position in the state of an
+     * entity, so that equal differences follow each other, and run-length encoded.
+     * @param referenceCodes The codes of the keyframe, or null to encode the state on its own.
+     * @param referenceState The packed state of the keyframe, or null.
+     * @param codes The codes of the frame.
+     * @param state The packed state of the frame.
+     * @param cells The cells that can hold an entity of the frame or of the keyframe, see cellsOf.
+     * @return The encoded state.
+     */
+    private byte[] encodeState(byte[] referenceCodes, byte[] referenceState, byte[] codes, byte[] state, int[] cells)
+    {
+        int[][] layout = stateLayout(codes, cells);
+        int[] base = layout[0];
+        int[] counts = layout[1];
+        int[] written = new int[counts.length];
+        byte[] grouped = new byte[state.length];
+        int position = 0;
+        int referencePosition = 0;
+        for (int run = 0; run < cells.length; run += 2) {
+            for (int i = cells[run]; i < cells[run + 1]; i++) {
+                int reference = referenceCodes == null ? 0 : referenceCodes[i];
+                if (codes[i] != 0) {
+                    int species = codes[i] - 1;
+                    int size = stateSizes[species];
+                    int index = base[species] + written[species]++;
+                    for (int b = 0; b < size; b++) {
+                        int difference = reference == codes[i] ? referenceState[referencePosition + b] : 0;
+                        grouped[index + b * counts[species]] = (byte) (state[position + b] - difference);
+                    }
+                    position += size;
+                }
+                if (reference != 0) {
+                    referencePosition += stateSizes[reference - 1];
+                }
+            }
+        }
+        return encodeRunLength(grouped, null);
+    }
+
+    /**
+     * Decode the packed state of the entities of a frame, see encodeState.
+     * @param data The encoded state.
+     * @param referenceCodes The codes of the keyframe the state has been encoded against, or null.
+     * @param referenceState The packed state of the keyframe, or null.
+     * @param codes The codes of the frame.
+     * @return The packed state of the frame.
+     */
+    private byte[] decodeState(byte[] data, byte[] referenceCodes, byte[] referenceState, byte[] codes)
+    {
+        int[][] layout = stateLayout(codes, new int[] {0, codes.length});
+        int[] base = layout[0];
+        int[] counts = layout[1];
+        int[] read = new int[counts.length];
+        byte[] grouped = new byte[layout[2][0]];
+        applyRunLength(data, grouped, false);
+        byte[] state = new byte[grouped.length];
+        int position = 0;
+        int referencePosition = 0;
+        for (int i = 0; i < codes.length; i++) {
+            int reference = referenceCodes == null ? 0 : referenceCodes[i];
+            if (codes[i] != 0) {
+                int species = codes[i] - 1;
+                int size = stateSizes[species];
+                int index = base[species] + read[species]++;
+                for (int b = 0; b < size; b++) {
+                    int difference = reference == codes[i] ? referenceState[referencePosition + b] : 0;
+                    state[position + b] = (byte) (grouped[index + b * counts[species]] + difference);
+                }
+                position += size;
+            }
+            if (reference != 0) {
+                referencePosition += stateSizes[reference - 1];
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Work out where the state of each species goes when the state of a frame is grouped, see encodeState.
+     * @param codes The codes of the frame.
+     * @param cells The cells that can hold an entity of the frame, see cellsOf.
+     * @return The index of the first byte of each species, the number of entities of each species and, as the only
+     * element of the third array, the size of the state of the frame.
+     */
+    private int[][] stateLayout(byte[] codes, int[] cells)
+    {
+        int[] counts = new int[stateSizes.length];
+        for (int run = 0; run < cells.length; run += 2) {
+            for (int i = cells[run]; i < cells[run + 1]; i++) {
+                if (codes[i] != 0) {
+                    counts[codes[i] - 1]++;
+                }
+            }
+        }
+        int[] base = new int[stateSizes.length];
+        int total = 0;
+        for (int species = 0; species < stateSizes.length; species++) {
+            base[species] = total;
+            total += counts[species] * stateSizes[species];
+        }
+        return new int[][] {base, counts, {total}};
+    }
+
+    /**
+     * Run-length encode the given bytes, optionally XOR-ed against a reference first.
+     * Each run is stored as its length (7 bits per byte, highest bit set if more bytes follow) followed by its value.
+     * @param codes The bytes to encode.
+     * @param reference The bytes to XOR against, or null.
+     * @return The encoded bytes.
+     */
+    private static byte[] encodeRunLength(byte[] codes, byte[] reference)
+    {
+        return encodeRunLength(codes, reference, new int[] {0, codes.length});
+    }
+
+    /**
+     * Run-length encode the given bytes, optionally XOR-ed against a reference first, see encodeRunLength. Only the
+     * given cells are looked at; every other byte, and its reference, must be 0.
+     * @param codes The bytes to encode.
+     * @param reference The bytes to XOR against, or null.
+     * @param cells The cells to look at, see cellsOf.
+     * @return The encoded bytes, the same as if every byte had been looked at.
+     */
+    private static byte[] encodeRunLength(byte[] codes, byte[] reference, int[] cells)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte value = 0; // The value of the run that has not been written yet.
+        int run = 0;
+        int end = 0; // The end of the cells looked at so far.
+        for (int part = 0; part < cells.length; part += 2) {
+            // The bytes between the cells are 0.
+            if (cells[part] > end && value != 0) {
+                writeRun(out, run, value);
+                value = 0;
+                run = 0;
+            }
+            run += cells[part] - end;
+            for (int i = cells[part]; i < cells[part + 1]; i++) {
+                byte next = reference == null ? codes[i] : (byte) (codes[i] ^ reference[i]);
+                if (next != value && run > 0) {
+                    writeRun(out, run, value);
+                    run = 0;
+                }
+                value = next;
+                run++;
+            }
+            end = cells[part + 1];
+        }
+        if (codes.length > end && value != 0) {
+            writeRun(out, run, value);
+            value = 0;
+            run = 0;
+        }
+        run += codes.length - end;
+        if (run > 0) {
+            writeRun(out, run, value);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write a run of equal bytes, see encodeRunLength.
+     * @param out The stream to write to.
+     * @param run The length of the run.
+     * @param value The value of the bytes.
+     */
+    private static void writeRun(ByteArrayOutputStream out, int run, byte value)
+    {
+        while (run >= 0x80) {
+            out.write((run & 0x7F) | 0x80);
+            run >>>= 7;
+        }
+        out.write(run);
+        out.write(value);
+    }
+
+    /**
+     * Return the cells of a part of the field as the codes of a frame lay them out, level after level and row after
+     * row. Cells that follow each other are joined.
+     * @param region The first row, the first column, the row after the last and the column after the last of the part.
+     * @param field The field.
+     * @return The first cell and the cell after the last of each run of cells, in order.
+     */
+    private static int[] cellsOf(int[] region, Field field)
+    {
+        int levelSize = field.getDepth() * field.getWidth();
+        int rows = Math.max(0, region[2] - region[0]);
+        int[] cells = new int[2 * field.getHeight() * rows];
+        int count = 0;
+        if (region[3] > region[1]) {
+            for (int level = 0; level < field.getHeight(); level++) {
+                for (int row = region[0]; row < region[2]; row++) {
+                    int start = level * levelSize + row * field.getWidth() + region[1];
+                    if (count > 0 && cells[count - 1] == start) {
+                        cells[count - 1] = start + region[3] - region[1];
+                    } else {
+                        cells[count++] = start;
+                        cells[count++] = start + region[3] - region[1];
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    /**
+     * Return the smallest part of the field that covers two parts.
+     * @param region A part, see record.
+     * @param other Another part, or null.
+     * @return The part that covers both.
+     */
+    private static int[] union(int[] region, int[] other)
+    {
+        if (other == null) {
+            return region;
+        }
+        return new int[] {Math.min(region[0], other[0]), Math.min(region[1], other[1]),
+                Math.max(region[2], other[2]), Math.max(region[3], other[3])};
+    }
+
+    /**
+     * Decode run-length encoded bytes into the target.
+     * @param data The encoded bytes.
+     * @param target The array to write the decoded bytes to.
+     * @param xor If the decoded bytes are XOR-ed into the target instead of overwriting it.
+     */
+    private static void applyRunLength(byte[] data, byte[] target, boolean xor)
+    {
+        int position = 0;
+        int i = 0;
+        while (i < data.length) {
+            int run = 0;
+            int shift = 0;
+            byte next;
+            do {
+                next = data[i++];
+                run |= (next & 0x7F) << shift;
+                shift += 7;
+            } while ((next & 0x80) != 0);
+            byte value = data[i++];
+            if (!xor) {
+                Arrays.fill(target, position, position + run, value);
+            } else if (value != 0) {
+                GridKernels.xor(target, position, position + run, value);
+            }
+            position += run;
+        }
+    }
+
+    /**
+     * A single recorded step.
+     */
+    private static class Frame
+    {
+        private final int step;
+        private final int referenceStep; // The step the codes are XOR-ed against, -1 for a keyframe.
+        private final Frame keyframe; // The keyframe the state is encoded against, null for a keyframe.
+        private final int codeCount;
+        private byte[] state; // The packed state of all entities in the order of their cells, dropped once compressed.
+        private byte[] codes; // The species codes of the cells, dropped once compressed.
+        private byte[] compressedCodes;
+        private byte[] compressedState;
+        private final int rawSize;
+
+        /**
+         * Create a new uncompressed frame.
+         * @param step The step of the frame.
+         * @param referenceStep The step of the previous frame, or -1 if the frame is compressed without a reference.
+         * @param keyframe The latest keyframe, or null if this frame is one.
+         * @param codes The species code of every cell.
+         * @param state The packed state of the entities.
+         */
+        public Frame(int step, int referenceStep, Frame keyframe, byte[] codes, byte[] state)
+        {
+            this.step = step;
+            this.referenceStep = referenceStep;
+            this.keyframe = keyframe;
+            codeCount = codes.length;
+            this.codes = codes;
+            this.state = state;
+            rawSize = codes.length + state.length;
+        }
+
+        /**
+         * Create a compressed frame from a frame that now refers to another frame, e.g. because the frames in between
+         * have been shed. Its state is still encoded against the same keyframe.
+         * @param frame The original frame.
+         * @param referenceStep The step the new codes are XOR-ed against.
+         * @param compressedCodes The new compressed codes.
+         */
+        public Frame(Frame frame, int referenceStep, byte[] compressedCodes)
+        {
+            step = frame.step;
+            this.referenceStep = referenceStep;
+            keyframe = frame.keyframe;
+            codeCount = frame.codeCount;
+            compressedState = frame.getCompressedState();
+            rawSize = frame.rawSize;
+            this.compressedCodes = compressedCodes;
+        }
+
+        /**
+         * Compress the codes of this frame and keep the encoded state instead of the packed one.
+         * @param reference The codes of the previous frame. Ignored for keyframes.
+         * @param cells The cells that can differ from the previous frame, or hold an entity for keyframes.
+         * @param compressedState The state encoded against the keyframe, see History.encodeState.
+         */
+        public synchronized void compress(byte[] reference, int[] cells, byte[] compressedState)
+        {
+            compressedCodes = encodeRunLength(codes, isKeyframe() ? null : reference, cells);
+            this.compressedState = compressedState;
+            codes = null;
+            state = null;
+        }
+
+        /**
+         * @return The uncompressed codes, or null if the frame has been compressed.
+         */
+        public synchronized byte[] getCodes() { return codes; }
+
+        /**
+         * @return The compressed codes, or null if the frame has not been compressed yet.
+         */
+        public synchronized byte[] getCompressedCodes() { return compressedCodes; }
+
+        /**
+         * @return The packed state of the entities, or null if the frame has been compressed.
+         */
+        public synchronized byte[] getState() { return state; }
+
+        /**
+         * @return The encoded state of the entities, or null if the frame has not been compressed yet.
+         */
+        public synchronized byte[] getCompressedState() { return compressedState; }
+
+        /**
+         * @return The keyframe the state is encoded against, or null if this frame is a keyframe.
+         */
+        public Frame getKeyframe() { return keyframe; }
+
+        /**
+         * @return If the frame does not depend on the previous one.
+         */
+        public boolean isKeyframe() { return referenceStep < 0; }
+
+        /**
+         * @return The step the codes are XOR-ed against.
+         */
+        public int getReferenceStep() { return referenceStep; }
+
+        /**
+         * @return The number of codes, one for every cell.
+         */
+        public int getCodeCount() { return codeCount; }
+
+        /**
+         * @return The step of the frame.
+         */
+        public int getStep() { return step; }
+
+        /**
+         * @return The size of the frame before compression in bytes.
+         */
+        public int getRawSize() { return rawSize; }
+
+        /**
+         * @return The size of the compressed frame in bytes.
+         */
+        public synchronized int getCompressedSize() { return compressedCodes.length + compressedState.length; }
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class HistoryRestoreCheck - Checks that the history restores the steps it has recorded, also after it has been
+ * cleared and has recorded another world, as when the simulation is reset. Run it with "java HistoryRestoreCheck".
+ * Every step that is not restored as it was recorded is reported, and the check exits with status 1 if there is any.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class HistoryRestoreCheck {
+
+    private static final int DEPTH = 80;
+    private static final int WIDTH = 120;
+    private static final int STEPS = 80;
+    private static final Time clock = new Time(15);
+
+    /**
+     * Run the check.
+     * @param args Not used.
+     */
+    public static void main(String[] args)
+    {
+        History history = new History();
+        int failures = checkWorld(history, 1, new int[] {79, 50, 40});
+        history.clear();
+        // The step decoded last in the first world is restored first, when the frames of that world are gone.
+        failures += checkWorld(history, 2, new int[] {40, 50, 79});
+        System.out.println(failures == 0 ? "Every step has been restored as recorded"
+                : failures + " steps have not been restored as recorded");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Populate a new field, record its steps and restore some of them.
+     * @param history The history to record the steps in, which must be empty.
+     * @param seed The seed of the world.
+     * @param steps The steps to restore, in this order.
+     * @return The number of steps that have not been restored as recorded.
+     */
+    private static int checkWorld(History history, long seed, int[] steps)
+    {
+        Field field = new Field(DEPTH, WIDTH);
+        List<Entity> entities = populate(field, new Random(seed));
+        StepEngine engine = new SequentialEngine();
+        List<String> recorded = new ArrayList<>();
+        history.record(0, field);
+        recorded.add(describe(field));
+        for (int step = 1; step <= STEPS; step++) {
+            entities = engine.step(entities, field, step, clock.getCurrentTime(step));
+            field.getStore().recycle();
+            history.record(step, field);
+            recorded.add(describe(field));
+        }
+        history.awaitCompression(); // Decoding compressed frames is what is checked.
+
+        int failures = 0;
+        for (int step : steps) {
+            history.restore(step, field, entities);
+            if (!describe(field).equals(recorded.get(step))) {
+                System.out.println("World " + seed + ": step " + step + " has not been restored as recorded");
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Fill a field with entities of random species.
+     * @param field The empty field.
+     * @param rand The random generator that chooses the species.
+     * @return The entities, in the order they were created.
+     */
+    private static List<Entity> populate(Field field, Random rand)
+    {
+        List<Entity> entities = new ArrayList<>();
+        int species = SpeciesRegistry.getSpeciesCount();
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                int ordinal = rand.nextInt(4 * species); // Three cells in four stay empty.
+                if (ordinal < species) {
+                    Location location = new Location(row, col, SpeciesRegistry.getLevel(ordinal));
+                    entities.add(SpeciesRegistry.createRandom(ordinal, field, location));
+                }
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Describe every entity of a field by its cell, its species and its packed state.
+     * @param field The field.
+     * @return The description.
+     */
+    private static String describe(Field field)
+    {
+        StringBuilder description = new StringBuilder();
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        try {
+            for (int level = 0; level < field.getHeight(); level++) {
+                for (int row = 0; row < field.getDepth(); row++) {
+                    for (int col = 0; col < field.getWidth(); col++) {
+                        Entity entity = field.getEntityAt(row, col, level);
+                        if (entity != null) {
+                            state.reset();
+                            entity.writeState(new DataOutputStream(state));
+                            description.append(level).append(',').append(row).append(',').append(col).append(' ')
+                                    .append(entity.getSpeciesOrdinal())
+                                    .append(Arrays.toString(state.toByteArray())).append('\n');
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not describe the field", e);
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class Intent - What an entity wants to do in a step of the IntentEngine: whom it wants to mate with, where it
+ * wants to put its offspring, what it wants to eat and where it wants to move. Intents are decided from the state
+ * of the field at the start of the step and carried out afterwards, so several of them may conflict.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class Intent {
+
+    private final Entity entity;
+    private List<Animal> mates; // The animals met while looking for a mate, or null if the entity does not need one.
+    private List<Location> birthLocations; // The free locations for offspring, in order of preference.
+    private int births; // The number of offspring.
+    private Entity prey; // What the entity wants to eat, may be null.
+    private Location preyLocation; // Where the entity moves after eating its prey.
+    private Location preyOrigin; // Where the prey was when the intent was decided.
+    private List<Location> moves; // The free locations to move to in order of preference, or null if it stays.
+
+    /**
+     * Create an intent to do nothing.
+     * @param entity The entity having the intent.
+     */
+    public Intent(Entity entity)
+    {
+        this.entity = entity;
+        birthLocations = Collections.emptyList();
+    }
+
+    /**
+     * @return The entity having the intent.
+     */
+    public Entity getEntity() { return entity; }
+
+    /**
+     * @return The animals met while looking for a mate, or null if no mate is needed to have offspring.
+     */
+    public List<Animal> getMates() { return mates; }
+
+    /**
+     * @param mates The animals met while looking for a mate, in the order they are met.
+     */
+    public void setMates(List<Animal> mates) { this.mates = mates; }
+
+    /**
+     * @return The free locations for offspring, in order of preference.
+     */
+    public List<Location> getBirthLocations() { return birthLocations; }
+
+    /**
+     * @return The number of offspring.
+     */
+    public int getBirths() { return births; }
+
+    /**
+     * Set the offspring the entity wants to have.
+     * @param birthLocations The free locations for offspring, in order of preference.
+     * @param births The number of offspring.
+     */
+    public void setBirths(List<Location> birthLocations, int births)
+    {
+        this.birthLocations = birthLocations;
+        this.births = births;
+    }
+
+    /**
+     * @return What the entity wants to eat, may be null.
+     */
+    public Entity getPrey() { return prey; }
+
+    /**
+     * @return Where the entity moves after eating its prey.
+     */
+    public Location getPreyLocation() { return preyLocation; }
+
+    /**
+     * @return Where the prey was when the intent was decided.
+     */
+    public Location getPreyOrigin() { return preyOrigin; }
+
+    /**
+     * Set what the entity wants to eat.
+     * @param prey The entity to eat.
+     * @param preyLocation Where the entity moves after eating it.
+     */
+    public void setPrey(Entity prey, Location preyLocation)
+    {
+        this.prey = prey;
+        this.preyLocation = preyLocation;
+        preyOrigin = prey.getLocation();
+    }
+
+    /**
+     * @return The free locations to move to in order of preference, or null if the entity stays where it is.
+     */
+    public List<Location> getMoves() { return moves; }
+
+    /**
+     * @param moves The free locations to move to in order of preference. If none of them is free anymore, the
+     * entity dies of overcrowding.
+     */
+    public void setMoves(List<Location> moves) { this.moves = moves; }
+}
@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Callable;
+
+/**
+ * Class IntentEngine - Lets all entities act synchronously, so that every entity sees the same state of the field
+ * no matter when it acts. A step runs in three phases:
+ * 1. Every entity updates its own state (age, hunger, ...), in parallel. The state is updated page by page in the
+ *    entity store of the field, see EntityStore.update.
+ * 2. Every entity decides what it wants to do from the now frozen field and emits an intent, in parallel. Each batch
+ *    of entities writes into a buffer of its own and each entity draws its random numbers from a stream of its own.
+ * 3. The intents are resolved one after another, in the order the entities were created, into a second buffer of
+ *    the field. Conflicts go to the older entity: a cell taken by an earlier intent is not free for the later ones,
+ *    which fall back to their next choice, and prey can only be eaten once.
+ * The result only depends on the seed, not on the number of threads.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class IntentEngine extends ParallelEngine {
+
+    private static final int BATCH_SIZE = 1024; // The number of entities handled by one task.
+
+    /**
+     * Create an engine using one thread per processor.
+     */
+    public IntentEngine()
+    {
+    }
+
+    /**
+     * Create an engine using the given number of threads.
+     * @param threads The number of threads, at least one.
+     */
+    public IntentEngine(int threads)
+    {
+        super(threads);
+    }
+
+    /**
+     * Let every entity act once, synchronously.
+     * @param entities The live entities, in the order they were created.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The surviving entities in the order they were created, followed by the newborns.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        // Nothing may be shared with a fork while several threads change the field.
+        field.unshare();
+        for (ListIterator<Entity> it = entities.listIterator(); it.hasNext(); ) {
+            it.set(field.own(it.next()));
+        }
+
+        // Each page of the store only holds the state of its own entities. Entities that die are removed afterwards.
+        EntityStore store = field.getStore();
+        List<Callable<List<Entity>>> updates = new ArrayList<>();
+        for (int page = 0; page < store.getPageCount(); page++) {
+            int first = page;
+            updates.add(() -> {
+                List<Entity> dying = new ArrayList<>();
+                store.update(first, first + 1, currentTime, dying);
+                return dying;
+            });
+        }
+        for (List<Entity> dying : invokeAll(updates)) {
+            for (Entity entity : dying) {
+                entity.setDead();
+            }
+        }
+
+        // The field is only read while the intents are emitted.
+        List<Callable<List<Intent>>> plans = new ArrayList<>();
+        for (int start = 0; start < entities.size(); start += BATCH_SIZE) {
+            int first = start;
+            List<Entity> batch = entities.subList(start, Math.min(start + BATCH_SIZE, entities.size()));
+            plans.add(() -> plan(batch, first, step, currentTime));
+        }
+        List<Intent> intents = new ArrayList<>(entities.size());
+        for (List<Intent> buffer : invokeAll(plans)) {
+            intents.addAll(buffer);
+        }
+
+        List<Entity> newEntities = resolve(intents, field);
+        List<Entity> survivors = new ArrayList<>(entities.size() + newEntities.size());
+        for (Entity entity : entities) {
+            if (entity.isAlive()) {
+                survivors.add(entity);
+            }
+        }
+        survivors.addAll(newEntities);
+        return survivors;
+    }
+
+    /**
+     * Emit the intents of a batch of entities.
+     * @param batch The entities.
+     * @param first The index of the first entity of the batch in the list of all entities.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The intents of the live entities of the batch, in the same order.
+     */
+    private static List<Intent> plan(List<Entity> batch, int first, int step, int currentTime)
+    {
+        List<Intent> intents = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Entity entity = batch.get(i);
+            if (entity.isAlive()) {
+                Intent intent = new Intent(entity);
+                Randomizer.beginStream(Randomizer.getStreamSeed(step, first + i));
+                try {
+                    entity.plan(intent, currentTime);
+                } finally {
+                    Randomizer.endStream();
+                }
+                intents.add(intent);
+            }
+        }
+        return intents;
+    }
+
+    /**
+     * Carry out the intents one after another, building the next state of the field.
+     * @param intents The intents, in the order the entities were created.
+     * @param field The field.
+     * @return The newborns.
+     */
+    protected List<Entity> resolve(List<Intent> intents, Field field)
+    {
+        field.beginNextState();
+        // Entities that stay where they are keep their cells.
+        for (Intent intent : intents) {
+            if (intent.getMoves() == null) {
+                intent.getEntity().placeInNextState(intent.getEntity().getLocation());
+            }
+        }
+
+        List<Entity> newEntities = new ArrayList<>();
+        for (Intent intent : intents) {
+            Entity entity = intent.getEntity();
+            if (!entity.isAlive()) {
+                continue; // Eaten by an older entity.
+            }
+            // Mating changes the mates even if no offspring can be born.
+            boolean mated = intent.getMates() == null || ((Animal) entity).mate(intent.getMates());
+            int births = 0;
+            for (Location location : intent.getBirthLocations()) {
+                if (mated && births < intent.getBirths() && field.isFree(location)) {
+                    newEntities.add(entity.createYoung(location));
+                    births++;
+                }
+            }
+        }
+
+        for (Intent intent : intents) {
+            Entity entity = intent.getEntity();
+            if (!entity.isAlive() || intent.getMoves() == null) {
+                continue;
+            }
+            Location target = null;
+            Entity prey = intent.getPrey();
+            if (prey != null && prey.isAlive()) {
+                ((Animal) entity).eat(prey);
+                if (field.isFree(intent.getPreyLocation())) {
+                    target = intent.getPreyLocation();
+                }
+            }
+            for (Location location : intent.getMoves()) {
+                if (target == null && field.isFree(location)) {
+                    target = location;
+                }
+            }
+            if (target != null) {
+                entity.placeInNextState(target);
+                entity.afterMove();
+            } else {
+                entity.setDead(); // Overcrowding.
+            }
+        }
+        return newEntities;
+    }
+}
@@ -0,0 +1,731 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class LevelOfDetailEngine - Simulates only a region of interest of the field, e.g. the part the user looks at,
+ * entity by entity, and the rest of the field as numbers. The field is split into square tiles. The tiles that
+ * overlap the region are simulated in detail by another engine. Every other tile is aggregated: its entities are
+ * removed from the field and only the number of entities of each species in each environment of the tile is kept.
+ * These numbers change every step by the birth and death rates of the species in the environment, which are
+ * measured on the tiles simulated in detail. A tile is only brought up to date when it is looked at, i.e. when
+ * entities are aggregated into it, when it is materialised or when its animals walk into the region, and is then
+ * changed by the current rates for every step it has missed. The time a step takes therefore depends on the size of
+ * the region rather than on the size of the field. The simulator only records and compresses the region in the
+ * history as well, but every frame it records still clears an array of codes as large as the field.
+ * When the region moves, the tiles that enter it are materialised: their numbers are turned back into entities with
+ * a random state at random free cells of the tile. The tiles that leave it are aggregated.
+ * Entities that walk or spread out of the region are aggregated into the tile they have reached at the end of the
+ * step. How often the animals in the tiles at the edge of the region walk out of it is measured as well, and every
+ * few steps the aggregated tiles next to the region let their animals walk into it at the same rate, so that the
+ * region does not only lose its animals to the tiles around it.
+ * The aggregated tiles are an approximation. Their entities do not move, hunt or spread into other tiles, a tile that
+ * has not been looked at for a while changes by the rates measured when it is, and their numbers are not recorded in
+ * the history, so going back in time only restores the region.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class LevelOfDetailEngine implements StepEngine {
+
+    private static final int TILE_SIZE = 32; // The number of rows and columns of a tile.
+    private static final int IMMIGRATION_INTERVAL = 10; // The number of steps between two immigrations into the region.
+    private static final int MAX_CATCH_UP = 1000; // The most steps a tile changes by at once, see catchUp.
+    private static final int MIN_SAMPLE = 20; // Rates are only measured on at least this many entities.
+    private static final double SMOOTHING = 0.05; // The weight of the latest step in the measured rates.
+    private static final int ENVIRONMENTS = FieldStats.getEnvironmentCount();
+    private static final int RANDOM_PART = -1; // The part of the step the random stream of the tiles belongs to.
+    private static final boolean[] ANIMALS = findAnimals(); // If each species can walk into other tiles.
+
+    private StepEngine engine; // Simulates the tiles in detail.
+    private int top, left, bottom, right; // The region of interest, bottom and right exclusive.
+    private boolean regionChanged; // If the tiles must be aggregated or materialised before the next step.
+    private int stepsSinceImmigration;
+
+    private int depth, width; // The size of the field the tiles have been made for.
+    private int tileRows, tileColumns; // The number of rows of tiles and of tiles in a row.
+    private byte[] environmentOfColumn; // The index of the environment each column is counted in, see FieldStats.
+    // The rows and columns of the tiles simulated in detail, bottom and right exclusive.
+    private int tileTop, tileLeft, tileBottom, tileRight;
+    private int[][] aggregated; // The numbers of each tile at species * ENVIRONMENTS + environment, row after row.
+    private int[] evolvedStep; // The latest step each aggregated tile has changed by the rates for.
+    private int currentStep;
+    // The numbers of all aggregated tiles as of their latest update, by species, and their sum.
+    private final int[] aggregatedCounts = new int[SpeciesRegistry.getSpeciesCount()];
+    private int aggregatedCount;
+
+    // The birth and death rates per entity and step at species * ENVIRONMENTS + environment, NaN until measured.
+    private final double[] birthRates = new double[SpeciesRegistry.getSpeciesCount() * ENVIRONMENTS];
+    private final double[] deathRates = new double[birthRates.length];
+    // The entities before a step and the survivors and newborns after it, reused from one step to the next.
+    private final int[] before = new int[birthRates.length];
+    private final int[] survivors = new int[birthRates.length];
+    private final int[] newborns = new int[birthRates.length];
+    // The rate at which the animals of each species in the tiles at the edge walk out of the region, per animal and
+    // step, NaN until measured. It is measured on the animals that have walked out since the last immigration.
+    private final double[] crossingRates = new double[SpeciesRegistry.getSpeciesCount()];
+    private final int[] emigrants = new int[crossingRates.length];
+    private final long[] edgeSteps = new long[crossingRates.length]; // The steps animals have spent at the edge.
+
+    /**
+     * Create an engine that simulates the whole field in detail until a region of interest is set.
+     * @param engine The engine that simulates the tiles in detail.
+     */
+    public LevelOfDetailEngine(StepEngine engine)
+    {
+        this.engine = engine;
+        bottom = Integer.MAX_VALUE;
+        right = Integer.MAX_VALUE;
+        Arrays.fill(birthRates, Double.NaN);
+        Arrays.fill(deathRates, Double.NaN);
+        Arrays.fill(crossingRates, Double.NaN);
+    }
+
+    /**
+     * Create a copy of the given engine, e.g. for a fork of a simulation, with a fork of the engine that simulates the
+     * tiles in detail.
+     * @param parent The engine to copy.
+     */
+    private LevelOfDetailEngine(LevelOfDetailEngine parent)
+    {
+        engine = parent.engine.fork();
+        top = parent.top;
+        left = parent.left;
+        bottom = parent.bottom;
+        right = parent.right;
+        regionChanged = parent.regionChanged;
+        stepsSinceImmigration = parent.stepsSinceImmigration;
+        depth = parent.depth;
+        width = parent.width;
+        tileRows = parent.tileRows;
+        tileColumns = parent.tileColumns;
+        environmentOfColumn = parent.environmentOfColumn;
+        tileTop = parent.tileTop;
+        tileLeft = parent.tileLeft;
+        tileBottom = parent.tileBottom;
+        tileRight = parent.tileRight;
+        if (parent.aggregated != null) {
+            aggregated = new int[parent.aggregated.length][];
+            for (int tile = 0; tile < aggregated.length; tile++) {
+                if (parent.aggregated[tile] != null) {
+                    aggregated[tile] = parent.aggregated[tile].clone();
+                }
+            }
+            evolvedStep = parent.evolvedStep.clone();
+        }
+        currentStep = parent.currentStep;
+        System.arraycopy(parent.aggregatedCounts, 0, aggregatedCounts, 0, aggregatedCounts.length);
+        aggregatedCount = parent.aggregatedCount;
+        System.arraycopy(parent.birthRates, 0, birthRates, 0, birthRates.length);
+        System.arraycopy(parent.deathRates, 0, deathRates, 0, deathRates.length);
+        System.arraycopy(parent.crossingRates, 0, crossingRates, 0, crossingRates.length);
+        System.arraycopy(parent.emigrants, 0, emigrants, 0, emigrants.length);
+        System.arraycopy(parent.edgeSteps, 0, edgeSteps, 0, edgeSteps.length);
+    }
+
+    /**
+     * Copy this engine with its aggregated tiles, e.g. for a fork of a simulation.
+     * @return The copy.
+     */
+    @Override
+    public LevelOfDetailEngine fork()
+    {
+        return new LevelOfDetailEngine(this);
+    }
+
+    /**
+     * Change the engine that simulates the tiles in detail.
+     * @param engine The engine.
+     */
+    public void setEngine(StepEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * Set the region that is simulated in detail from the next step on. Every tile that overlaps it is simulated in
+     * detail.
+     * @param top The first row of the region.
+     * @param left The first column of the region.
+     * @param rows The number of rows of the region.
+     * @param cols The number of columns of the region.
+     */
+    public void setRegionOfInterest(int top, int left, int rows, int cols)
+    {
+        this.top = top;
+        this.left = left;
+        bottom = top + rows;
+        right = left + cols;
+        regionChanged = true;
+    }
+
+    /**
+     * Drop the aggregated tiles, e.g. when the field has been populated again. The measured rates are kept, as they
+     * describe the species rather than the state of the field.
+     */
+    public void clear()
+    {
+        aggregated = null;
+        evolvedStep = null;
+        Arrays.fill(aggregatedCounts, 0);
+        aggregatedCount = 0;
+    }
+
+    /**
+     * Return the number of entities of each species in the aggregated tiles, which are not in the field, as of the
+     * latest update of each tile.
+     * @return The numbers by the ordinal of the species.
+     */
+    public int[] getAggregatedCounts()
+    {
+        return aggregatedCounts.clone();
+    }
+
+    /**
+     * Return the part of the field the entities are in after a step: the tiles simulated in detail. The rest of the
+     * field is empty.
+     * @param field The field.
+     * @return The first row, the first column, the row after the last and the column after the last.
+     */
+    public int[] getDetailedRegion(Field field)
+    {
+        if (aggregated == null || field.getDepth() != depth || field.getWidth() != width) {
+            return new int[] {0, 0, field.getDepth(), field.getWidth()}; // No step has aggregated anything yet.
+        }
+        return new int[] {tileTop * TILE_SIZE, tileLeft * TILE_SIZE, Math.min(tileBottom * TILE_SIZE, depth),
+                Math.min(tileRight * TILE_SIZE, width)};
+    }
+
+    /**
+     * Let the entities of the tiles in the region act once with the engine and measure the rates the numbers of the
+     * other tiles change by. Before that, the tiles that have entered or left the region are materialised or
+     * aggregated, and afterwards the entities that have left the region are aggregated.
+     * @param entities The live entities, in the order they were created, or as returned by the previous step.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The entities alive after the step, as returned by the engine.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        currentStep = step;
+        if (aggregated == null || field.getDepth() != depth || field.getWidth() != width) {
+            createTiles(field.getDepth(), field.getWidth());
+        }
+        Random rand = new Random(Randomizer.getStreamSeed(step, RANDOM_PART));
+        stepsSinceImmigration++;
+        if (regionChanged || stepsSinceImmigration >= IMMIGRATION_INTERVAL) {
+            entities = updateTiles(entities, field, rand);
+            regionChanged = false;
+            stepsSinceImmigration = 0;
+        }
+        long lastOrder = countBefore(entities);
+        List<Entity> result = engine.step(entities, field, step, currentTime);
+        measureRates(result, lastOrder);
+        return aggregateLeavers(result, field);
+    }
+
+    /**
+     * Split a field into tiles, all of which are simulated in detail until the tiles are updated for the region.
+     * @param depth The number of rows of the field.
+     * @param width The number of columns of the field.
+     */
+    private void createTiles(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        tileRows = (depth + TILE_SIZE - 1) / TILE_SIZE;
+        tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        environmentOfColumn = new byte[width];
+        for (int col = 0; col < width; col++) {
+            environmentOfColumn[col] = (byte) FieldStats.getEnvironmentIndex(col, width);
+        }
+        tileTop = 0;
+        tileLeft = 0;
+        tileBottom = tileRows;
+        tileRight = tileColumns;
+        aggregated = new int[tileRows * tileColumns][];
+        evolvedStep = new int[aggregated.length];
+        Arrays.fill(aggregatedCounts, 0);
+        aggregatedCount = 0;
+        regionChanged = true;
+    }
+
+    /**
+     * Decide which tiles are simulated in detail, aggregate the entities outside of them, materialise the tiles that
+     * have entered the region and let the animals of the aggregated tiles next to the region walk into it. Measure
+     * how often the animals walk out of the region from those that have left it since the last time.
+     * @param entities The live entities.
+     * @param field The field the entities live in.
+     * @param rand The random stream of the tiles in this step.
+     * @return The given entities if the whole field is simulated in detail, otherwise the entities left in the region
+     * in the order they were created, followed by the materialised ones and the animals that have walked in.
+     */
+    private List<Entity> updateTiles(List<Entity> entities, Field field, Random rand)
+    {
+        if (regionChanged) {
+            // Every tile that overlaps the region.
+            tileTop = Math.min(Math.max(0, top) / TILE_SIZE, tileRows);
+            tileLeft = Math.min(Math.max(0, left) / TILE_SIZE, tileColumns);
+            tileBottom = Math.max(tileTop, bottom >= depth ? tileRows : (bottom + TILE_SIZE - 1) / TILE_SIZE);
+            tileRight = Math.max(tileLeft, right >= width ? tileColumns : (right + TILE_SIZE - 1) / TILE_SIZE);
+        }
+        boolean materialise = false;
+        for (int row = tileTop; row < tileBottom; row++) {
+            for (int col = tileLeft; col < tileRight; col++) {
+                materialise |= aggregated[row * tileColumns + col] != null;
+            }
+        }
+        if (getDetailedTiles() == aggregated.length && !materialise) {
+            return entities;
+        }
+
+        List<Entity> kept = new ArrayList<>(entities.size());
+        for (Entity next : entities) {
+            Entity entity = field.own(next); // Entities shared with a fork are copied before they change.
+            if (!entity.isAlive()) {
+                continue;
+            }
+            int tile = tileOf(entity.getLocation());
+            if (isDetailed(tile)) {
+                kept.add(entity);
+            } else {
+                aggregate(entity, tile, currentStep - 1); // It has not acted in this step yet.
+            }
+        }
+        updateCrossingRates();
+        // The engines expect the entities in the order they were created, which materialised entities follow.
+        kept.sort(Comparator.comparingLong(Entity::getOrder));
+        for (int row = tileTop; row < tileBottom; row++) {
+            for (int col = tileLeft; col < tileRight; col++) {
+                if (aggregated[row * tileColumns + col] != null) {
+                    materialise(row * tileColumns + col, field, rand, kept);
+                }
+            }
+        }
+        // Only the tiles right next to the region, above, below, left or right of it, let their animals walk in.
+        for (int col = tileLeft; col < tileRight; col++) {
+            immigrate(tileTop - 1, col, tileTop, col, field, rand, kept);
+            immigrate(tileBottom, col, tileBottom - 1, col, field, rand, kept);
+        }
+        for (int row = tileTop; row < tileBottom; row++) {
+            immigrate(row, tileLeft - 1, row, tileLeft, field, rand, kept);
+            immigrate(row, tileRight, row, tileRight - 1, field, rand, kept);
+        }
+        return new EntityList(kept);
+    }
+
+    /**
+     * Aggregate the entities that have walked or spread out of the region in the last step into the tiles they have
+     * reached.
+     * @param entities The entities alive after the step, in the order the engine returned them.
+     * @param field The field the entities live in.
+     * @return The given entities if none has left the region, otherwise the others in the same order.
+     */
+    private List<Entity> aggregateLeavers(List<Entity> entities, Field field)
+    {
+        if (getDetailedTiles() == aggregated.length) {
+            return entities;
+        }
+        boolean anyLeft = false;
+        for (Entity entity : entities) {
+            if (entity.isAlive() && !isDetailed(tileOf(entity.getLocation()))) {
+                anyLeft = true;
+                break;
+            }
+        }
+        if (!anyLeft) {
+            return entities;
+        }
+        List<Entity> kept = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            if (!entity.isAlive()) {
+                continue;
+            }
+            int tile = tileOf(entity.getLocation());
+            if (isDetailed(tile)) {
+                kept.add(entity);
+            } else {
+                emigrants[entity.getSpeciesOrdinal()]++;
+                // Entities shared with a fork are copied before they change.
+                aggregate(field.own(entity), tile, currentStep);
+            }
+        }
+        return new EntityList(kept);
+    }
+
+    /**
+     * Remove an entity from the field and count it in the numbers of an aggregated tile.
+     * @param entity The entity, which must not be shared with a fork.
+     * @param tile The tile it is in.
+     * @param evolved The latest step the entity has acted in.
+     */
+    private void aggregate(Entity entity, int tile, int evolved)
+    {
+        if (aggregated[tile] == null) {
+            aggregated[tile] = new int[birthRates.length];
+            evolvedStep[tile] = evolved;
+        } else {
+            catchUp(tile, evolved);
+        }
+        aggregated[tile][indexOf(entity)]++;
+        aggregatedCounts[entity.getSpeciesOrdinal()]++;
+        aggregatedCount++;
+        entity.setDead();
+    }
+
+    /**
+     * Return if a tile is simulated in detail.
+     * @param tile The tile.
+     * @return If it is.
+     */
+    private boolean isDetailed(int tile)
+    {
+        int row = tile / tileColumns;
+        int col = tile % tileColumns;
+        return row >= tileTop && row < tileBottom && col >= tileLeft && col < tileRight;
+    }
+
+    /**
+     * Return if a tile is simulated in detail and lies next to an aggregated tile.
+     * @param tile The tile.
+     * @return If it does.
+     */
+    private boolean isEdge(int tile)
+    {
+        int row = tile / tileColumns;
+        int col = tile % tileColumns;
+        return isDetailed(tile) && ((row == tileTop && tileTop > 0) || (row == tileBottom - 1 && tileBottom < tileRows)
+                || (col == tileLeft && tileLeft > 0) || (col == tileRight - 1 && tileRight < tileColumns));
+    }
+
+    /**
+     * @return The number of tiles simulated in detail.
+     */
+    private int getDetailedTiles()
+    {
+        return (tileBottom - tileTop) * (tileRight - tileLeft);
+    }
+
+    /**
+     * Update the rate at which the animals of each species walk out of the region from the animals that have walked
+     * out since the last update.
+     */
+    private void updateCrossingRates()
+    {
+        for (int species = 0; species < crossingRates.length; species++) {
+            if (edgeSteps[species] >= MIN_SAMPLE) {
+                double rate = (double) emigrants[species] / edgeSteps[species];
+                crossingRates[species] = Double.isNaN(crossingRates[species]) ? rate
+                        : SMOOTHING * rate + (1 - SMOOTHING) * crossingRates[species];
+            }
+        }
+        Arrays.fill(emigrants, 0);
+        Arrays.fill(edgeSteps, 0);
+    }
+
+    /**
+     * Turn the numbers of an aggregated tile back into entities with a random state, at random free cells of the
+     * tile in the right environment. Entities that do not find a free cell are dropped.
+     * @param tile The tile.
+     * @param field The field to put the entities in.
+     * @param rand The random stream of the tiles in this step.
+     * @param entities The list to add the entities to.
+     */
+    private void materialise(int tile, Field field, Random rand, List<Entity> entities)
+    {
+        catchUp(tile, currentStep - 1);
+        int[] counts = aggregated[tile];
+        aggregated[tile] = null;
+        for (int species = 0; species < SpeciesRegistry.getSpeciesCount(); species++) {
+            for (int environment = 0; environment < ENVIRONMENTS; environment++) {
+                int count = counts[species * ENVIRONMENTS + environment];
+                aggregatedCounts[species] -= count;
+                aggregatedCount -= count;
+                if (count > 0) {
+                    place(species, count, tile, environment, field, rand, entities);
+                }
+            }
+        }
+    }
+
+    /**
+     * Let the animals of an aggregated tile walk into the region, into the tile in detail next to it, at the rate at
+     * which the animals at the edge of the region walk out of it, for the steps since the last immigration.
+     * @param row The row of tiles of the aggregated tile, which may lie outside of the field.
+     * @param col The column of tiles of the aggregated tile, which may lie outside of the field.
+     * @param targetRow The row of tiles of the tile in detail.
+     * @param targetCol The column of tiles of the tile in detail.
+     * @param field The field to put the animals in.
+     * @param rand The random stream of the tiles in this step.
+     * @param entities The list to add the animals to.
+     */
+    private void immigrate(int row, int col, int targetRow, int targetCol, Field field, Random rand,
+            List<Entity> entities)
+    {
+        if (row < 0 || row >= tileRows || col < 0 || col >= tileColumns) {
+            return;
+        }
+        int tile = row * tileColumns + col;
+        int target = targetRow * tileColumns + targetCol;
+        int[] counts = aggregated[tile];
+        if (counts == null) {
+            return;
+        }
+        catchUp(tile, currentStep - 1);
+        for (int species = 0; species < crossingRates.length; species++) {
+            if (!ANIMALS[species] || Double.isNaN(crossingRates[species])) {
+                continue;
+            }
+            for (int environment = 0; environment < ENVIRONMENTS; environment++) {
+                int i = species * ENVIRONMENTS + environment;
+                int count = Math.min(counts[i], round(counts[i] * crossingRates[species] * stepsSinceImmigration, rand));
+                if (count > 0) {
+                    int placed = place(species, count, target, -1, field, rand, entities);
+                    counts[i] -= placed;
+                    aggregatedCounts[species] -= placed;
+                    aggregatedCount -= placed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create entities of a species with a random state at random free cells of a tile.
+     * @param species The ordinal of the species.
+     * @param count The number of entities.
+     * @param tile The tile.
+     * @param environment The index of the environment of the cells, or -1 for any.
+     * @param field The field to put the entities in.
+     * @param rand The random stream of the tiles in this step.
+     * @param entities The list to add the entities to.
+     * @return The number of entities created, less than the number asked for if there are not enough free cells.
+     */
+    private int place(int species, int count, int tile, int environment, Field field, Random rand, List<Entity> entities)
+    {
+        int level = SpeciesRegistry.getLevel(species);
+        int rowStart = tile / tileColumns * TILE_SIZE;
+        int colStart = tile % tileColumns * TILE_SIZE;
+        int[] cells = new int[TILE_SIZE * TILE_SIZE];
+        int free = 0;
+        for (int row = rowStart; row < Math.min(rowStart + TILE_SIZE, depth); row++) {
+            for (int col = colStart; col < Math.min(colStart + TILE_SIZE, width); col++) {
+                if ((environment < 0 || environmentOfColumn[col] == environment) && field.isFree(row, col, level)) {
+                    cells[free++] = row * width + col;
+                }
+            }
+        }
+        // Draw the cells without putting them back, by shuffling only the front of the array.
+        int placed = Math.min(count, free);
+        for (int i = 0; i < placed; i++) {
+            int j = i + rand.nextInt(free - i);
+            int cell = cells[j];
+            cells[j] = cells[i];
+            Location location = new Location(cell / width, cell % width, level);
+            entities.add(SpeciesRegistry.createRandom(species, field, location));
+        }
+        return placed;
+    }
+
+    /**
+     * Count the live entities of each species in each environment before a step.
+     * @param entities The entities.
+     * @return The order of the youngest of them, so that the newborns of the step can be told apart.
+     */
+    private long countBefore(List<Entity> entities)
+    {
+        Arrays.fill(before, 0);
+        long lastOrder = Long.MIN_VALUE;
+        for (Entity entity : entities) {
+            if (entity.isAlive()) {
+                before[indexOf(entity)]++;
+                lastOrder = Math.max(lastOrder, entity.getOrder());
+            }
+        }
+        return lastOrder;
+    }
+
+    /**
+     * Update the birth and death rates of each species in each environment from the entities alive after a step.
+     * An entity that has moved into another environment counts as a death in the old one, which is rare enough to
+     * be ignored.
+     * @param entities The entities alive after the step.
+     * @param lastOrder The order of the youngest entity before the step, see countBefore.
+     */
+    private void measureRates(List<Entity> entities, long lastOrder)
+    {
+        Arrays.fill(survivors, 0);
+        Arrays.fill(newborns, 0);
+        for (Entity entity : entities) {
+            if (entity.isAlive()) {
+                (entity.getOrder() > lastOrder ? newborns : survivors)[indexOf(entity)]++;
+                if (isEdge(tileOf(entity.getLocation()))) {
+                    edgeSteps[entity.getSpeciesOrdinal()]++;
+                }
+            }
+        }
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] >= MIN_SAMPLE) {
+                double births = (double) newborns[i] / before[i];
+                double deaths = (double) Math.max(0, before[i] - survivors[i]) / before[i];
+                birthRates[i] = Double.isNaN(birthRates[i]) ? births : SMOOTHING * births + (1 - SMOOTHING) * birthRates[i];
+                deathRates[i] = Double.isNaN(deathRates[i]) ? deaths : SMOOTHING * deaths + (1 - SMOOTHING) * deathRates[i];
+            }
+        }
+    }
+
+    /**
+     * Let the numbers of an aggregated tile change by the births and deaths of every step since its latest update, at
+     * the rates measured now. A tile that has missed more than MAX_CATCH_UP steps only changes by that many, by when
+     * its numbers have settled at the capacity of the tile or died out. The number of entities at a level of the
+     * field is limited by the number of cells of the tile in the environment.
+     * @param tile The tile.
+     * @param step The step to bring the tile up to.
+     */
+    private void catchUp(int tile, int step)
+    {
+        int steps = Math.min(step - evolvedStep[tile], MAX_CATCH_UP);
+        if (steps <= 0) {
+            return;
+        }
+        evolvedStep[tile] = step;
+        Random rand = new Random(Randomizer.deriveSeed(Randomizer.getStreamSeed(step, RANDOM_PART), tile));
+        double[] births = ratesToUse(birthRates);
+        double[] deaths = ratesToUse(deathRates);
+        int[] counts = aggregated[tile];
+        int rowStart = tile / tileColumns * TILE_SIZE;
+        int colStart = tile % tileColumns * TILE_SIZE;
+        int rows = Math.min(TILE_SIZE, depth - rowStart);
+        int[] capacities = new int[ENVIRONMENTS];
+        for (int col = colStart; col < Math.min(colStart + TILE_SIZE, width); col++) {
+            capacities[environmentOfColumn[col]] += rows;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            aggregatedCounts[i / ENVIRONMENTS] -= counts[i];
+            aggregatedCount -= counts[i];
+        }
+        int[] levelTotals = new int[SpeciesRegistry.getLevelCount()];
+        for (int evolved = 0; evolved < steps; evolved++) {
+            for (int environment = 0; environment < ENVIRONMENTS; environment++) {
+                Arrays.fill(levelTotals, 0);
+                for (int species = 0; species < SpeciesRegistry.getSpeciesCount(); species++) {
+                    levelTotals[SpeciesRegistry.getLevel(species)] += counts[species * ENVIRONMENTS + environment];
+                }
+                for (int species = 0; species < SpeciesRegistry.getSpeciesCount(); species++) {
+                    int i = species * ENVIRONMENTS + environment;
+                    int count = counts[i];
+                    if (count == 0) {
+                        continue;
+                    }
+                    int level = SpeciesRegistry.getLevel(species);
+                    int died = Math.min(count, round(count * deaths[i], rand));
+                    int born = round(count * births[i], rand);
+                    int others = levelTotals[level] - count;
+                    counts[i] = Math.max(0, Math.min(count - died + born, capacities[environment] - others));
+                    levelTotals[level] = others + counts[i];
+                }
+            }
+        }
+        for (int i = 0; i < counts.length; i++) {
+            aggregatedCounts[i / ENVIRONMENTS] += counts[i];
+            aggregatedCount += counts[i];
+        }
+    }
+
+    /**
+     * Fill in the rates of the species in the environments they have not been measured in yet with their average
+     * over the other environments, or with zero if they have not been measured at all.
+     * @param rates The measured rates at species * ENVIRONMENTS + environment.
+     * @return The rates to use.
+     */
+    private static double[] ratesToUse(double[] rates)
+    {
+        double[] result = new double[rates.length];
+        for (int species = 0; species < rates.length / ENVIRONMENTS; species++) {
+            double sum = 0;
+            int measured = 0;
+            for (int environment = 0; environment < ENVIRONMENTS; environment++) {
+                double rate = rates[species * ENVIRONMENTS + environment];
+                if (!Double.isNaN(rate)) {
+                    sum += rate;
+                    measured++;
+                }
+            }
+            for (int environment = 0; environment < ENVIRONMENTS; environment++) {
+                double rate = rates[species * ENVIRONMENTS + environment];
+                result[species * ENVIRONMENTS + environment] = !Double.isNaN(rate) ? rate : measured > 0 ? sum / measured : 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the species that can walk into other tiles.
+     * @return If each species is an animal, by its ordinal.
+     */
+    private static boolean[] findAnimals()
+    {
+        boolean[] animals = new boolean[SpeciesRegistry.getSpeciesCount()];
+        for (int species = 0; species < animals.length; species++) {
+            animals[species] = Animal.class.isAssignableFrom(SpeciesRegistry.getSpeciesClass(species));
+        }
+        return animals;
+    }
+
+    /**
+     * Round a number of entities up or down at random, so that it is right on average.
+     * @param expected The expected number.
+     * @param rand The random stream of the tiles in this step.
+     * @return The rounded number.
+     */
+    private static int round(double expected, Random rand)
+    {
+        int whole = (int) expected;
+        return rand.nextDouble() < expected - whole ? whole + 1 : whole;
+    }
+
+    /**
+     * Return the tile a location lies in.
+     * @param location The location.
+     * @return The index of the tile.
+     */
+    private int tileOf(Location location)
+    {
+        return location.getRow() / TILE_SIZE * tileColumns + location.getCol() / TILE_SIZE;
+    }
+
+    /**
+     * Return the index of the species and environment of a live entity in the counts.
+     * @param entity The entity.
+     * @return The index, species * ENVIRONMENTS + environment.
+     */
+    private int indexOf(Entity entity)
+    {
+        return entity.getSpeciesOrdinal() * ENVIRONMENTS + environmentOfColumn[entity.getLocation().getCol()];
+    }
+
+    /**
+     * Return the mode of the engine that simulates the tiles in detail.
+     * @return The mode.
+     */
+    @Override
+    public String getMode()
+    {
+        return engine.getMode();
+    }
+
+    /**
+     * Return statistics about the latest step.
+     * @return How many tiles are simulated in detail, how many entities are aggregated and the statistics of the
+     * engine that simulates the tiles in detail.
+     */
+    @Override
+    public String getStatistics()
+    {
+        return String.format("Level of detail: %d of %d tiles in detail, %d entities aggregated. %s",
+                aggregated == null ? 0 : getDetailedTiles(), aggregated == null ? 0 : aggregated.length,
+                aggregatedCount, engine.getStatistics());
+    }
+}
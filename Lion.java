@@ -8,7 +8,7 @@ import java.util.List;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public class Lion extends Animal
+public final class Lion extends Animal
 {
 
     private static final int MAX_ENERGY = AnimalStats.LION.getMaxEnergy();
@@ -31,11 +31,24 @@ public class Lion extends Animal
      */
     public Lion(Field field, Location location, double size, double scent) {
         super(field, location);
-        age = 0;
-        energyLevel = MAX_ENERGY;
-        this.size = getMutationValue(size);
-        this.scent = getMutationValue(scent);
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(0);
+        setEnergyLevel(MAX_ENERGY);
+        setSize(getMutationValue(size));
+        setScent(getMutationValue(scent));
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
+    }
+
+    /**
+     * Create a lion of the given sex without drawing from the randomizer, e.g. when it is restored from a history
+     * frame. The rest of its state is expected to be set afterwards.
+     * @param field    The field currently occupied.
+     * @param location The location within the field.
+     * @param sex      The sex of the lion. True is male.
+     */
+    public Lion(Field field, Location location, boolean sex)
+    {
+        super(field, location, sex);
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -46,12 +59,12 @@ public class Lion extends Animal
     public Lion(Field field, Location location)
     {
         super(field, location);
-        age = rand.nextInt(MAX_AGE);
-        energyLevel = rand.nextInt(MAX_ENERGY);
-        availableForCoitus = rand.nextBoolean();
-        size = AnimalStats.LION.getDefaultSize();
-        scent = AnimalStats.LION.getDefaultScent();
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(rand.nextInt(MAX_AGE));
+        setEnergyLevel(rand.nextInt(MAX_ENERGY));
+        setAvailableForCoitus(rand.nextBoolean());
+        setSize(AnimalStats.LION.getDefaultSize());
+        setScent(AnimalStats.LION.getDefaultScent());
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     
@@ -68,7 +81,7 @@ public class Lion extends Animal
         super.act(newLions, currentTime);
         if (isAwake(currentTime)) { // The lion is active
             if (isAlive()) {
-                if (sex && foundMate((int) scent)) { // HARDCODED!
+                if (getSex() && foundMate((int) getScent())) { // HARDCODED!
                     giveBirth(newLions);
                 }
                 // Move towards a source of food if found.
@@ -89,11 +102,14 @@ public class Lion extends Animal
     }
 
     /**
-     * Updates the lion's nutrition value, depending on its age.
+     * Returns the lion's nutrition value at the given age.
+     * @param age The age.
+     * @return The food value.
      */
-    protected void updateFoodValue()
+    @Override
+    protected int getFoodValueAt(int age)
     {
-        foodValue = (int) Math.round(3*Math.log(Math.pow(age, 3))); //log grows fast in the beginning and slower at later stages
+        return (int) Math.round(3*Math.log(Math.pow(age, 3))); //log grows fast in the beginning and slower at later stages
     }
 
     /**
@@ -23,7 +23,6 @@ public class MapView extends JFrame
     // A map for storing colors for participants in the simulation
     private Map<Class, Color> colors;
     // A statistics object computing and storing simulation information
-    private FieldStats stats;
 
     private String currentEnvironment;
 
@@ -34,7 +33,6 @@ public class MapView extends JFrame
      */
     public MapView(int height, int width)
     {
-        stats = new FieldStats();
         colors = new LinkedHashMap<>();
 
         setTitle("Map Environment Viewer");
@@ -76,7 +74,6 @@ public class MapView extends JFrame
     {
 
         stepLabel.setText("");
-        stats.reset();
 
         fieldView.preparePaint();
 
@@ -103,10 +100,7 @@ public class MapView extends JFrame
                 }
             }
         }
-        stats.generateCounts(field);
-        stats.countFinished();
-
-        population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field, currentEnvironment));
+        population.setText(POPULATION_PREFIX + field.getStats().getPopulationDetails(currentEnvironment));
         fieldView.repaint();
     }
 
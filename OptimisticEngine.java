@@ -0,0 +1,271 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class OptimisticEngine - A relaxed variant of the IntentEngine for throughput experiments, which carries out the
+ * intents in parallel as well. The results are not reproducible.
+ * The next state of the field is claimed cell by cell with compare-and-set on an AtomicReferenceArray, so no locks
+ * are needed. An entity that loses the race for a cell retries with its next choice and dies of overcrowding if
+ * none is left. Before an entity carries out its intent it claims its own origin, so that it can not be eaten at the
+ * same time; a predator has to claim the origin of its prey in the same way. The engine counts how many claims had
+ * to be retried and how many entities lost a conflict.
+ * The entity store is not lock-free: every birth and death allocates or releases an id under the lock of the store,
+ * as does waking a sleeping entity, so these are serialised across the threads.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class OptimisticEngine extends IntentEngine {
+
+    private static final int BATCH_SIZE = 256; // The number of intents carried out by one task.
+
+    private AtomicReferenceArray<Entity> claims; // The owner of every cell in the next state.
+    private AtomicReferenceArray<Entity> origins; // The entity that has claimed the origin of another, or itself.
+    private int depth;
+    private int width;
+
+    // Statistics of the latest step
+    private final LongAdder attempts; // Claims of a cell.
+    private final LongAdder retries; // Claims of a cell that were lost.
+    private final LongAdder conflicts; // Entities that lost a race for their prey, themselves or a cell to move to.
+    private int acted; // Entities that had anything to do.
+
+    /**
+     * Create an engine using one thread per processor.
+     */
+    public OptimisticEngine()
+    {
+        attempts = new LongAdder();
+        retries = new LongAdder();
+        conflicts = new LongAdder();
+    }
+
+    /**
+     * Create an engine using the given number of threads.
+     * @param threads The number of threads, at least one.
+     */
+    public OptimisticEngine(int threads)
+    {
+        super(threads);
+        attempts = new LongAdder();
+        retries = new LongAdder();
+        conflicts = new LongAdder();
+    }
+
+    /**
+     * Return a new engine for a fork of the simulation, as the claims of the cells are reused from one step to the
+     * next.
+     * @return The new engine, with as many threads as this one.
+     */
+    @Override
+    public OptimisticEngine fork()
+    {
+        return new OptimisticEngine(pool.getParallelism());
+    }
+
+    /**
+     * Return how many claims of a cell had to be retried and how many entities lost a conflict in the latest step.
+     * @return The statistics.
+     */
+    @Override
+    public String getStatistics()
+    {
+        double retryRate = attempts.sum() == 0 ? 0 : 100.0 * retries.sum() / attempts.sum();
+        double conflictRate = acted == 0 ? 0 : 100.0 * conflicts.sum() / acted;
+        return String.format("Optimistic engine: %.1f%% of cell claims retried, %.1f%% of entities lost a conflict", retryRate, conflictRate);
+    }
+
+    /**
+     * Carry out the intents in parallel, building the next state of the field.
+     * @param intents The intents, in the order the entities were created.
+     * @param field The field.
+     * @return The newborns.
+     */
+    @Override
+    protected List<Entity> resolve(List<Intent> intents, Field field)
+    {
+        prepareClaims(field);
+        attempts.reset();
+        retries.reset();
+        conflicts.reset();
+        acted = 0;
+        field.beginNextState();
+        // Entities that stay where they are keep their cells.
+        List<Location> starts = new ArrayList<>(intents.size());
+        for (Intent intent : intents) {
+            Entity entity = intent.getEntity();
+            starts.add(entity.getLocation());
+            if (intent.getMoves() == null) {
+                claims.set(indexOf(entity.getLocation()), entity);
+                entity.placeInNextState(entity.getLocation());
+            }
+            if (hasWork(intent)) {
+                acted++;
+            }
+        }
+
+        List<Callable<List<Entity>>> tasks = new ArrayList<>();
+        for (int start = 0; start < intents.size(); start += BATCH_SIZE) {
+            int first = start;
+            int end = Math.min(start + BATCH_SIZE, intents.size());
+            tasks.add(() -> {
+                List<Entity> newEntities = new ArrayList<>();
+                for (int i = first; i < end; i++) {
+                    carryOut(intents.get(i), starts.get(i), newEntities);
+                }
+                return newEntities;
+            });
+        }
+        List<Entity> newEntities = new ArrayList<>();
+        for (List<Entity> births : invokeAll(tasks, field)) {
+            newEntities.addAll(births);
+        }
+
+        // Leave the claims empty for the next step.
+        for (Location start : starts) {
+            origins.set(indexOf(start), null);
+        }
+        for (Intent intent : intents) {
+            if (intent.getEntity().isAlive()) {
+                claims.set(indexOf(intent.getEntity().getLocation()), null);
+            }
+        }
+        for (Entity young : newEntities) {
+            claims.set(indexOf(young.getLocation()), null);
+        }
+        return newEntities;
+    }
+
+    /**
+     * Carry out a single intent, racing with the intents carried out by other threads.
+     * @param intent The intent.
+     * @param start The location of the entity at the start of the step. Its current location may be changed by a
+     * predator at any time.
+     * @param newEntities A list to receive the newborns.
+     */
+    private void carryOut(Intent intent, Location start, List<Entity> newEntities)
+    {
+        Entity entity = intent.getEntity();
+        if (!hasWork(intent)) {
+            return;
+        }
+        if (!origins.compareAndSet(indexOf(start), null, entity)) {
+            conflicts.increment(); // It is being eaten.
+            return;
+        }
+
+        // Mating changes the mates even if no offspring can be born. The sex and availability of the
+        // mates are not synchronised, but they are kept apart from the flags the store changes under its lock.
+        boolean mated = intent.getMates() == null || ((Animal) entity).mate(intent.getMates());
+        int births = 0;
+        for (Location location : intent.getBirthLocations()) {
+            if (mated && births < intent.getBirths() && claim(location, entity)) {
+                Entity young = entity.createYoung(location);
+                claims.set(indexOf(location), young);
+                newEntities.add(young);
+                births++;
+            }
+        }
+
+        if (intent.getMoves() == null) {
+            return;
+        }
+        Location target = null;
+        Entity prey = intent.getPrey();
+        if (prey != null) {
+            if (origins.compareAndSet(indexOf(intent.getPreyOrigin()), null, entity)) {
+                ((Animal) entity).eat(prey);
+                claims.compareAndSet(indexOf(intent.getPreyOrigin()), prey, null); // It may have stayed.
+                if (claim(intent.getPreyLocation(), entity)) {
+                    target = intent.getPreyLocation();
+                }
+            } else {
+                conflicts.increment(); // Eaten by another entity or busy.
+            }
+        }
+        for (Location location : intent.getMoves()) {
+            if (target == null && claim(location, entity)) {
+                target = location;
+            }
+        }
+        if (target != null) {
+            entity.placeInNextState(target);
+            entity.afterMove();
+        } else {
+            conflicts.increment();
+            entity.setDead(); // Overcrowding.
+        }
+    }
+
+    /**
+     * Try to claim a cell of the next state, following the same rules as Field.isFree: ground animals and grass
+     * can not share a cell with a tree.
+     * @param location The cell.
+     * @param claimant The entity claiming it.
+     * @return If the cell has been claimed.
+     */
+    private boolean claim(Location location, Entity claimant)
+    {
+        attempts.increment();
+        int index = indexOf(location);
+        if (claims.compareAndSet(index, null, claimant)) {
+            int level = location.getLevel();
+            if ((level != 0 && level != 2) || claims.get(indexOf(location.getRow(), location.getCol(), 1)) == null) {
+                return true;
+            }
+            claims.set(index, null); // Lost against a tree.
+        }
+        retries.increment();
+        return false;
+    }
+
+    /**
+     * Return if carrying out an intent does anything.
+     * @param intent The intent.
+     * @return If the entity wants to mate, have offspring, eat or move.
+     */
+    private static boolean hasWork(Intent intent)
+    {
+        return intent.getMates() != null || intent.getBirths() > 0 || intent.getMoves() != null;
+    }
+
+    /**
+     * Make sure the claim arrays match the size of the field. They are empty between steps.
+     * @param field The field.
+     */
+    private void prepareClaims(Field field)
+    {
+        int size = field.getHeight() * field.getDepth() * field.getWidth();
+        if (claims == null || claims.length() != size || depth != field.getDepth()) {
+            claims = new AtomicReferenceArray<>(size);
+            origins = new AtomicReferenceArray<>(size);
+            depth = field.getDepth();
+            width = field.getWidth();
+        }
+    }
+
+    /**
+     * Return the index of a cell in the claim arrays.
+     * @param location The cell.
+     * @return The index.
+     */
+    private int indexOf(Location location)
+    {
+        return indexOf(location.getRow(), location.getCol(), location.getLevel());
+    }
+
+    /**
+     * Return the index of a cell in the claim arrays.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param level The level of the cell.
+     * @return The index.
+     */
+    private int indexOf(int row, int col, int level)
+    {
+        return (level * depth + row) * width + col;
+    }
+}
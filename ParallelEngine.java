@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Class ParallelEngine - A step engine that spreads the work of a step over a pool of threads.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public abstract class ParallelEngine implements StepEngine {
+
+    protected final ForkJoinPool pool;
+
+    /**
+     * Create an engine using one thread per processor.
+     */
+    public ParallelEngine()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an engine using the given number of threads.
+     * @param threads The number of threads, at least one.
+     */
+    public ParallelEngine(int threads)
+    {
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Run the tasks on the pool and wait for all of them.
+     * @param tasks The tasks.
+     * @param <T> The type of the results.
+     * @return The results of the tasks, in the same order as the tasks.
+     */
+    protected <T> List<T> invokeAll(List<Callable<T>> tasks)
+    {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            results.add(getResult(future));
+        }
+        return results;
+    }
+
+    /**
+     * Run the tasks on the pool and wait for all of them, with each task counting the entities it places in and
+     * clears from the field in a batch of its own, see FieldStats.beginBatch.
+     * @param tasks The tasks.
+     * @param field The field the tasks change.
+     * @param <T> The type of the results.
+     * @return The results of the tasks, in the same order as the tasks.
+     */
+    protected <T> List<T> invokeAll(List<Callable<T>> tasks, Field field)
+    {
+        FieldStats stats = field.getStats();
+        List<Callable<T>> batches = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            batches.add(() -> {
+                stats.beginBatch();
+                try {
+                    return task.call();
+                } finally {
+                    stats.endBatch();
+                }
+            });
+        }
+        return invokeAll(batches);
+    }
+
+    /**
+     * Return the result of a finished task, rethrowing anything it has thrown.
+     * @param future The future of the task.
+     * @param <T> The type of the result.
+     * @return The result of the task.
+     */
+    private static <T> T getResult(Future<T> future)
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Could not simulate the step in parallel", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while simulating the step", e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Class ParallelPopulator - Populates a field on all processors. The rows of the field are split into a fixed number
+ * of bands, and each band draws from random streams of its own, derived from a seed taken from the shared randomizer
+ * and the index of the band. The field is the same every time it is populated from the same seed with the same
+ * number of bands, no matter how many threads there are or how they are scheduled.
+ * The field is populated in two passes. The first pass counts the entities of each band, so that each band can
+ * reserve a block of ids in the entity store in band order, see EntityStore.reserve. The second pass draws the same
+ * species again and creates the entities into their reserved blocks. The entities of the bands are finally merged in
+ * band order, which is also the order of their ids.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class ParallelPopulator {
+
+    private final AliasTable table; // The species of a cell; outcomes after the last species leave the cell empty.
+    private final int bandCount;
+
+    /**
+     * Create a populator.
+     * @param table The table to draw the species of each cell from. Outcomes that are not the ordinal of a species
+     * leave the cell empty.
+     * @param bandCount The number of bands the rows are split into. The field depends on it.
+     */
+    public ParallelPopulator(AliasTable table, int bandCount)
+    {
+        if (bandCount < 1) {
+            throw new IllegalArgumentException("At least one band is needed, not " + bandCount);
+        }
+        this.table = table;
+        this.bandCount = bandCount;
+    }
+
+    /**
+     * Populate an empty field.
+     * @param field The field, whose entity store must not hand out ids on other threads meanwhile.
+     * @param entities The list to append the new entities to, in the order they were created.
+     */
+    public void populate(Field field, List<Entity> entities)
+    {
+        int bands = Math.min(bandCount, Math.max(1, field.getDepth()));
+        long seed = Randomizer.getRandom().nextLong();
+        EntityStore store = field.getStore();
+
+        int[] counts = new int[bands];
+        IntStream.range(0, bands).parallel().forEach(band -> counts[band] = countBand(field, bands, band, seed));
+        EntityStore.Reservation[] reservations = new EntityStore.Reservation[bands];
+        for (int band = 0; band < bands; band++) {
+            reservations[band] = store.reserve(counts[band]);
+        }
+
+        field.unshare(); // The bands place their entities into the chunks of the field at the same time.
+        Entity[][] created = new Entity[bands][];
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            created[band] = new Entity[counts[band]];
+            store.beginReservation(reservations[band]);
+            field.getStats().beginBatch();
+            Randomizer.beginStream(Randomizer.deriveSeed(seed, 2 * band + 1)); // The state of the entities.
+            try {
+                fillBand(field, bands, band, seed, created[band]);
+            } finally {
+                Randomizer.endStream();
+                field.getStats().endBatch();
+                store.endReservation();
+            }
+        });
+        for (Entity[] band : created) {
+            entities.addAll(Arrays.asList(band));
+        }
+    }
+
+    /**
+     * Count the entities that fillBand will create in a band.
+     * @param field The field.
+     * @param bands The number of bands.
+     * @param band The index of the band.
+     * @param seed The seed of the populator.
+     * @return The number of entities.
+     */
+    private int countBand(Field field, int bands, int band, long seed)
+    {
+        Random species = new Random(Randomizer.deriveSeed(seed, 2 * band)); // The species of the cells.
+        int speciesCount = SpeciesRegistry.getSpeciesCount();
+        int cells = (lastRow(field, bands, band) - firstRow(field, bands, band)) * field.getWidth();
+        int count = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            if (table.sample(species) < speciesCount) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Create the entities of a band, drawing the same species as countBand.
+     * @param field The field.
+     * @param bands The number of bands.
+     * @param band The index of the band.
+     * @param seed The seed of the populator.
+     * @param created The array to put the entities into, as long as countBand has counted.
+     */
+    private void fillBand(Field field, int bands, int band, long seed, Entity[] created)
+    {
+        Random species = new Random(Randomizer.deriveSeed(seed, 2 * band));
+        int speciesCount = SpeciesRegistry.getSpeciesCount();
+        int count = 0;
+        for (int row = firstRow(field, bands, band); row < lastRow(field, bands, band); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                int ordinal = table.sample(species);
+                if (ordinal < speciesCount) {
+                    Location location = new Location(row, col, SpeciesRegistry.getLevel(ordinal)); //Every species is stored at its own level.
+                    created[count++] = SpeciesRegistry.createRandom(ordinal, field, location);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param field The field.
+     * @param bands The number of bands.
+     * @param band The index of a band.
+     * @return The first row of the band.
+     */
+    private static int firstRow(Field field, int bands, int band)
+    {
+        return (int) ((long) field.getDepth() * band / bands);
+    }
+
+    /**
+     * @param field The field.
+     * @param bands The number of bands.
+     * @param band The index of a band.
+     * @return The row after the last row of the band.
+     */
+    private static int lastRow(Field field, int bands, int band)
+    {
+        return firstRow(field, bands, band + 1);
+    }
+}
@@ -0,0 +1,461 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+/**
+ * Class PlantEngine - Simulates the plants as a layer of the grid and leaves the animals to another engine. Plants
+ * neither move nor hunt, so instead of going through their act methods one by one, a step of the plants is a kernel
+ * over the grid, split into bands of rows that are processed on several threads:
+ * first the state of every plant is updated in the entity store, then the plants that are awake propagate by
+ * looking at the cells around them directly. Two bands that are processed at the same time are always a whole band
+ * apart, so as long as no plant reaches further than half a band, they never touch the same cells.
+ * Most plants of a dense area have no free cell within their reach, so the engine keeps track of how many free cells
+ * each cell has around it, see FreeCells. Plants without any are dormant: they still age, but are not visited when
+ * the plants propagate until a cell within their reach is cleared, so only the plants on the frontier cost anything.
+ * A plant only becomes an object when it is seeded, because the animals find their food in the cells of the field.
+ * The animals act after the plants, with the engine given to the constructor, which must change the field in place.
+ * Every band draws its random numbers from a stream derived from the step and the band, so the result is the same for
+ * the same seed, no matter how many threads there are. It is not the same as with the SequentialEngine, as the
+ * plants act before the animals and the seeds are put into the free cells in a different random order.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class PlantEngine extends ParallelEngine {
+
+    private static final int BAND_HEIGHT = 16; // The number of rows of a band, widened to twice the largest reach.
+
+    private final StepEngine animalEngine; // Lets the animals act.
+    private int plantCount; // The number of plants at the start of the latest step.
+    private int seedCount; // The number of plants seeded in the latest step.
+    private int bandCount; // The number of bands in the latest step.
+    private int dormantCount; // The number of plants that could not propagate in the latest step.
+
+    /**
+     * Create an engine using one thread per processor that leaves the animals to a ScheduledEngine.
+     */
+    public PlantEngine()
+    {
+        this(new ScheduledEngine());
+    }
+
+    /**
+     * Create an engine using one thread per processor.
+     * @param animalEngine The engine that lets the animals act. It must change the field in place.
+     */
+    public PlantEngine(StepEngine animalEngine)
+    {
+        this.animalEngine = checkAnimalEngine(animalEngine);
+    }
+
+    /**
+     * Create an engine using the given number of threads.
+     * @param animalEngine The engine that lets the animals act. It must change the field in place.
+     * @param threads The number of threads, at least one.
+     */
+    public PlantEngine(StepEngine animalEngine, int threads)
+    {
+        super(threads);
+        this.animalEngine = checkAnimalEngine(animalEngine);
+    }
+
+    /**
+     * Check that an engine can let the animals act while the plants stay in the field.
+     * @param engine The engine.
+     * @return The engine.
+     */
+    private static StepEngine checkAnimalEngine(StepEngine engine)
+    {
+        if (engine instanceof IntentEngine) {
+            // It builds the next state of the field from its own entities only, which would drop the plants.
+            throw new IllegalArgumentException("The animals need an engine that changes the field in place.");
+        }
+        return engine;
+    }
+
+    /**
+     * Let the plants act as a grid kernel and then the animals with the animal engine.
+     * @param entities The live entities. If this is the list returned by the previous step, the list of the animals
+     * is handed to the animal engine again, so that it can reuse it.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The entities alive after the step: the animals as returned by the animal engine, followed by the plants
+     * in the order they were created and the seeds in band order.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        Layers layers;
+        if (entities instanceof Layers && ((Layers) entities).field == field) {
+            layers = (Layers) entities;
+        } else {
+            layers = new Layers(entities, field);
+        }
+
+        // Nothing may be shared with a fork while several threads change the field.
+        field.unshare();
+        int reach = 0;
+        for (int i = 0; i < layers.plants.size(); i++) {
+            Entity plant = field.own(layers.plants.get(i));
+            layers.plants.set(i, plant);
+            reach = Math.max(reach, plant.getReach());
+        }
+        int bandHeight = Math.max(BAND_HEIGHT, 2 * reach);
+        int bands = (field.getDepth() + bandHeight - 1) / bandHeight;
+        List<List<Entity>> plantsByBand = new ArrayList<>(bands);
+        for (int band = 0; band < bands; band++) {
+            plantsByBand.add(new ArrayList<>());
+        }
+        for (Entity plant : layers.plants) {
+            plantsByBand.get(plant.getLocation().getRow() / bandHeight).add(plant);
+        }
+
+        EntityStore store = field.getStore();
+        store.beginStep(step);
+        List<Callable<List<Entity>>> updates = new ArrayList<>(bands);
+        for (List<Entity> band : plantsByBand) {
+            updates.add(() -> updateBand(band, store, currentTime));
+        }
+        // Removing the plants that die of age changes the field, so it is done afterwards, in band order.
+        for (List<Entity> dying : invokeAll(updates)) {
+            for (Entity plant : dying) {
+                Location location = plant.getLocation();
+                plant.setDead();
+                layers.freeCells.update(location.getRow(), location.getCol());
+            }
+        }
+
+        // Only the plants that have a free cell within their reach propagate. Seeds only fill cells, so a plant
+        // that is dormant now stays dormant until the end of the step.
+        int dormant = 0;
+        for (List<Entity> band : plantsByBand) {
+            band.removeIf(plant -> !plant.isAlive());
+            int alive = band.size();
+            band.removeIf(plant -> !layers.freeCells.hasFreeCells(plant.getLocation()));
+            dormant += alive - band.size();
+        }
+        List<Entity> seeds = new ArrayList<>();
+        for (int parity = 0; parity < 2; parity++) {
+            List<Callable<List<Entity>>> tasks = new ArrayList<>();
+            for (int band = parity; band < bands; band += 2) {
+                List<Entity> plants = plantsByBand.get(band);
+                long seed = Randomizer.getStreamSeed(step, band);
+                tasks.add(() -> propagateBand(plants, field, seed, currentTime));
+            }
+            for (List<Entity> births : invokeAll(tasks, field)) {
+                seeds.addAll(births);
+            }
+        }
+        store.endStep();
+        for (Entity seed : seeds) {
+            layers.addPlant(seed);
+        }
+        plantCount = layers.plants.size() - seeds.size();
+        seedCount = seeds.size();
+        bandCount = bands;
+        dormantCount = dormant;
+
+        layers.animals = animalEngine.step(layers.animals, field, step, currentTime);
+        layers.removeDead(); // Died of age or eaten by the animals.
+        return layers;
+    }
+
+    /**
+     * Update the state of the plants of a band in the entity store.
+     * @param plants The plants of the band.
+     * @param store The store of the field.
+     * @param currentTime The time of the day.
+     * @return The plants that have died of age.
+     */
+    private static List<Entity> updateBand(List<Entity> plants, EntityStore store, int currentTime)
+    {
+        List<Entity> dying = new ArrayList<>();
+        for (Entity plant : plants) {
+            if (!store.update(plant.getState(), plant.getSlot(), currentTime)) {
+                dying.add(plant);
+            }
+        }
+        return dying;
+    }
+
+    /**
+     * Let the plants of a band that are awake put seeds into the free cells within their reach, drawing random
+     * numbers from the stream of the band.
+     * @param plants The plants of the band.
+     * @param field The field.
+     * @param seed The seed of the random stream of the band.
+     * @param currentTime The time of the day.
+     * @return The seeds.
+     */
+    private static List<Entity> propagateBand(List<Entity> plants, Field field, long seed, int currentTime)
+    {
+        List<Entity> seeds = new ArrayList<>();
+        Randomizer.beginStream(seed);
+        try {
+            int[] free = new int[0];
+            for (Entity plant : plants) {
+                if (!plant.isAlive() || !plant.isAwake(currentTime)) {
+                    continue;
+                }
+                int births = plant.breed();
+                if (births == 0) {
+                    continue; // Most plants do not propagate, so their surroundings are not even looked at.
+                }
+                int reach = plant.getReach();
+                if (free.length < (2 * reach + 1) * (2 * reach + 1)) {
+                    free = new int[(2 * reach + 1) * (2 * reach + 1)];
+                }
+                Location location = plant.getLocation();
+                int count = findFreeCells(field, location, reach, free);
+                for (int b = 0; b < births && count > 0; b++) {
+                    // Take a random free cell and fill the gap with the last one.
+                    int pick = Randomizer.getRandom().nextInt(count);
+                    int cell = free[pick];
+                    free[pick] = free[--count];
+                    seeds.add(plant.createYoung(new Location(cell / field.getWidth(), cell % field.getWidth(), location.getLevel())));
+                }
+            }
+        } finally {
+            Randomizer.endStream();
+        }
+        return seeds;
+    }
+
+    /**
+     * Collect the free cells around a location at its level.
+     * @param field The field.
+     * @param location The location.
+     * @param reach How many rows and columns away the cells may be.
+     * @param free An array to receive the cells as row * width + column.
+     * @return The number of free cells.
+     */
+    private static int findFreeCells(Field field, Location location, int reach, int[] free)
+    {
+        int count = 0;
+        int fromRow = Math.max(0, location.getRow() - reach);
+        int toRow = Math.min(field.getDepth() - 1, location.getRow() + reach);
+        int fromCol = Math.max(0, location.getCol() - reach);
+        int toCol = Math.min(field.getWidth() - 1, location.getCol() + reach);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = fromCol; col <= toCol; col++) {
+                if (field.isFree(row, col, location.getLevel())) { // Also excludes the cell of the plant itself.
+                    free[count++] = row * field.getWidth() + col;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return a new engine for a fork of the simulation, with a fork of the engine that lets the animals act.
+     * @return The new engine, with as many threads as this one.
+     */
+    @Override
+    public PlantEngine fork()
+    {
+        return new PlantEngine(animalEngine.fork(), pool.getParallelism());
+    }
+
+    /**
+     * Return statistics about the latest step.
+     * @return How many plants there were, in how many bands, how many were dormant and seeded and what the animal
+     * engine did.
+     */
+    @Override
+    public String getStatistics()
+    {
+        return String.format("Plant engine: %d plants in %d bands, %d dormant, %d seeds. %s", plantCount, bandCount,
+                dormantCount, seedCount, animalEngine.getStatistics());
+    }
+
+    /**
+     * The entities of a field, split into the plants and the list of the animals that the animal engine works on.
+     * As a list, it contains the animals followed by the plants.
+     */
+    private static class Layers extends AbstractList<Entity>
+    {
+        private final Field field;
+        private List<Entity> animals;
+        private final List<Entity> plants;
+        private int[] cells; // The cell of each plant, as row * width + column, as dead plants have no location.
+        private final FreeCells freeCells;
+
+        /**
+         * Split the given entities into animals and plants.
+         * @param entities The entities.
+         * @param field The field the entities live in.
+         */
+        Layers(List<Entity> entities, Field field)
+        {
+            this.field = field;
+            animals = new ArrayList<>();
+            plants = new ArrayList<>();
+            cells = new int[16];
+            for (Entity entity : entities) {
+                if (entity instanceof Plant) {
+                    addPlant(entity);
+                } else {
+                    animals.add(entity);
+                }
+            }
+            freeCells = new FreeCells(field, plants);
+        }
+
+        /**
+         * Add a plant after the others.
+         * @param plant The plant.
+         */
+        void addPlant(Entity plant)
+        {
+            if (plants.size() == cells.length) {
+                cells = Arrays.copyOf(cells, 2 * cells.length);
+            }
+            Location location = plant.getLocation();
+            cells[plants.size()] = location.getRow() * field.getWidth() + location.getCol();
+            plants.add(plant);
+            if (freeCells != null) {
+                freeCells.update(location.getRow(), location.getCol());
+            }
+        }
+
+        /**
+         * Remove the plants that have died and update the free cells around them.
+         */
+        void removeDead()
+        {
+            int kept = 0;
+            for (int i = 0; i < plants.size(); i++) {
+                if (plants.get(i).isAlive()) {
+                    plants.set(kept, plants.get(i));
+                    cells[kept++] = cells[i];
+                } else {
+                    freeCells.update(cells[i] / field.getWidth(), cells[i] % field.getWidth());
+                }
+            }
+            plants.subList(kept, plants.size()).clear();
+        }
+
+        /**
+         * Return an entity of the list.
+         * @param index The index, counting the animals first.
+         * @return The entity.
+         */
+        @Override
+        public Entity get(int index)
+        {
+            return index < animals.size() ? animals.get(index) : plants.get(index - animals.size());
+        }
+
+        /**
+         * Return an iterator over the animals followed by the plants.
+         * @return The iterator.
+         */
+        @Override
+        public Iterator<Entity> iterator()
+        {
+            return Stream.concat(animals.stream(), plants.stream()).iterator();
+        }
+
+        /**
+         * Return the number of entities.
+         * @return The number of animals and plants.
+         */
+        @Override
+        public int size()
+        {
+            return animals.size() + plants.size();
+        }
+    }
+
+    /**
+     * The number of free cells around each cell of the field, for each level that plants grow at, counted within the
+     * reach of the plants of that level. Only plants are born or die at these levels, so the counts are brought up
+     * to date whenever a plant is seeded or removed, see update.
+     */
+    private static class FreeCells
+    {
+        private final Field field;
+        private final int[] reach; // The reach of the plants of each level, or -1 if no plants grow at the level.
+        private final boolean[][] free; // If each cell is free, for each level.
+        private final int[][] counts; // The number of free cells within reach of each cell, for each level.
+
+        /**
+         * Count the free cells of a field.
+         * @param field The field.
+         * @param plants The plants of the field.
+         */
+        FreeCells(Field field, List<Entity> plants)
+        {
+            this.field = field;
+            reach = new int[field.getHeight()];
+            Arrays.fill(reach, -1);
+            for (Entity plant : plants) {
+                int level = plant.getLocation().getLevel();
+                reach[level] = Math.max(reach[level], plant.getReach());
+            }
+            free = new boolean[reach.length][];
+            counts = new int[reach.length][];
+            for (int level = 0; level < reach.length; level++) {
+                if (reach[level] < 0) {
+                    continue;
+                }
+                free[level] = new boolean[field.getDepth() * field.getWidth()];
+                counts[level] = new int[field.getDepth() * field.getWidth()];
+                for (int row = 0; row < field.getDepth(); row++) {
+                    for (int col = 0; col < field.getWidth(); col++) {
+                        free[level][row * field.getWidth() + col] = field.isFree(row, col, level);
+                    }
+                }
+                GridKernels.countWithinReach(free[level], field.getDepth(), field.getWidth(), reach[level], counts[level]);
+            }
+        }
+
+        /**
+         * Return if there is a free cell within the reach of the plants at a location.
+         * @param location The location of a plant.
+         * @return If the plant could propagate.
+         */
+        boolean hasFreeCells(Location location)
+        {
+            int[] levelCounts = counts[location.getLevel()];
+            return levelCounts == null || levelCounts[location.getRow() * field.getWidth() + location.getCol()] > 0;
+        }
+
+        /**
+         * Bring the counts up to date after a plant has been seeded or removed at a cell.
+         * @param row The row of the cell.
+         * @param col The column of the cell.
+         */
+        void update(int row, int col)
+        {
+            // A tree also takes the cell of the grass below it, so every level is checked again.
+            for (int level = 0; level < reach.length; level++) {
+                if (reach[level] >= 0 && field.isFree(row, col, level) != free[level][row * field.getWidth() + col]) {
+                    free[level][row * field.getWidth() + col] = !free[level][row * field.getWidth() + col];
+                    count(level, row, col, free[level][row * field.getWidth() + col] ? 1 : -1);
+                }
+            }
+        }
+
+        /**
+         * Change the counts of the cells within reach of a cell.
+         * @param level The level.
+         * @param row The row of the cell.
+         * @param col The column of the cell.
+         * @param change The change of the counts.
+         */
+        private void count(int level, int row, int col, int change)
+        {
+            int range = reach[level];
+            int from = Math.max(0, col - range);
+            int to = Math.min(field.getWidth() - 1, col + range) + 1;
+            for (int r = Math.max(0, row - range); r <= Math.min(field.getDepth() - 1, row + range); r++) {
+                GridKernels.add(counts[level], r * field.getWidth() + from, r * field.getWidth() + to, change);
+            }
+        }
+    }
+}
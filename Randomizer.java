@@ -13,7 +13,7 @@ public class Randomizer
     // The default seed for control of randomization.
     private static final int SEED = 1111;
     // A shared Random object, if required.
-    private static final Random rand = new Random(SEED);
+    private static final StreamRandom rand = new StreamRandom(SEED);
     // Determine whether a shared random generator is to be provided.
     private static final boolean useShared = true;
 
@@ -49,4 +49,95 @@ public class Randomizer
             rand.setSeed(SEED);
         }
     }
+
+    /**
+     * Let the shared generator draw from a stream of its own on the current thread, until endStream is called.
+     * Work that is done in parallel stays reproducible this way, no matter how the threads are scheduled.
+     * @param seed The seed of the stream, see getStreamSeed.
+     */
+    public static void beginStream(long seed)
+    {
+        rand.streamsUsed = true;
+        StreamRandom.streams.set(new Random(seed));
+    }
+
+    /**
+     * Let the shared generator draw from the shared sequence again on the current thread.
+     */
+    public static void endStream()
+    {
+        StreamRandom.streams.remove();
+    }
+
+    /**
+     * Return the seed of the random stream of one part of a step, e.g. a tile of the field.
+     * @param step The step.
+     * @param part The index of the part.
+     * @return A seed that differs for every step and part.
+     */
+    public static long getStreamSeed(int step, int part)
+    {
+        return mix(mix(SEED * 31L + step) * 31L + part);
+    }
+
+    /**
+     * Return the seed of the random stream of one part of a piece of work that has been given a seed of its own,
+     * e.g. a band of the field when it is populated in parallel.
+     * @param seed The seed of the work.
+     * @param part The index of the part.
+     * @return A seed that differs for every seed and part.
+     */
+    public static long deriveSeed(long seed, int part)
+    {
+        return mix(mix(seed) * 31L + part);
+    }
+
+    /**
+     * Scramble the bits of a number, so that close numbers give unrelated seeds (the SplitMix64 finaliser).
+     * @param z The number.
+     * @return The scrambled number.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A random generator that draws from the stream of the current thread if it has one, and from its own sequence
+     * otherwise.
+     */
+    private static class StreamRandom extends Random
+    {
+        private static final long serialVersionUID = 1L;
+        private static final ThreadLocal<Random> streams = new ThreadLocal<>();
+        private volatile boolean streamsUsed; // Skips looking for a stream until one has been used.
+
+        /**
+         * Create a generator with the given seed.
+         * @param seed The seed of the shared sequence.
+         */
+        public StreamRandom(long seed)
+        {
+            super(seed);
+        }
+
+        /**
+         * Generate the next random bits, from the stream of the current thread if it has one.
+         * @param bits The number of random bits.
+         * @return The random bits.
+         */
+        @Override
+        protected int next(int bits)
+        {
+            if (streamsUsed) {
+                Random stream = streams.get();
+                if (stream != null) {
+                    return stream.nextInt() >>> (32 - bits);
+                }
+            }
+            return super.next(bits);
+        }
+    }
 }
@@ -0,0 +1,262 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Class ScheduledEngine - Lets the entities act one after another like the SequentialEngine, but does not visit
+ * entities that are asleep. While it is not their activity time, the entities of a species only age and regain
+ * energy, so they are moved into a bucket of their species when they fall asleep and are put back once their
+ * species wakes up. The state of a sleeping entity is only brought up to date when another entity looks at it or
+ * when it wakes up, see EntityStore.catchUp, so that the result is the same as that of the SequentialEngine.
+ * Sleeping entities that reach their maximum age are woken up at the step they die at by a timing wheel, so that
+ * they die at their turn without the other sleeping entities being looked at.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class ScheduledEngine implements StepEngine {
+
+    private int awakeCount; // The number of entities that acted in the latest step.
+    private int asleepCount; // The number of entities that slept through the latest step.
+
+    /**
+     * Let every entity that is awake act once, in the order they were created.
+     * @param entities The live entities. If this is the list returned by the previous step, its buckets of sleeping
+     * entities are reused.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The entities alive after the step: the awake entities in the order they were created, followed by the
+     * newborns and the sleeping entities.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        EntityStore store = field.getStore();
+        store.beginStep(step);
+        Schedule schedule;
+        if (entities instanceof Schedule && ((Schedule) entities).field == field) {
+            schedule = (Schedule) entities;
+        } else {
+            schedule = new Schedule(entities, field, step);
+        }
+        schedule.wakeUp(step, currentTime);
+
+        List<Entity> newEntities = new ArrayList<>();
+        List<Entity> awake = new ArrayList<>(schedule.awake.size());
+        for (Entity next : schedule.awake) {
+            Entity entity = field.own(next); // Entities shared with a fork are copied before they change.
+            if (!entity.isAlive()) {
+                continue; // Eaten by an entity that acted earlier.
+            }
+            if (!entity.isAwake(currentTime) && entity.getAge() < entity.getMaxAge()) {
+                schedule.putToSleep(entity, step); // An entity that dies of age now still has to act.
+                continue;
+            }
+            store.setCursor(entity.getOrder());
+            entity.act(newEntities, currentTime);
+            if (entity.isAlive()) {
+                awake.add(entity);
+            }
+        }
+        store.endStep();
+        awakeCount = awake.size();
+        asleepCount = schedule.removeDead();
+
+        awake.addAll(newEntities);
+        schedule.awake = awake;
+        return schedule;
+    }
+
+    /**
+     * Return statistics about the latest step.
+     * @return How many entities have acted and how many have slept.
+     */
+    @Override
+    public String getStatistics()
+    {
+        return String.format("Scheduled engine: %d entities awake, %d asleep", awakeCount, asleepCount);
+    }
+
+    /**
+     * The entities of a field, split into the entities that are awake and a bucket of sleeping entities for each
+     * species. Each of them is ordered by when the entities were created. As a list, it contains the awake entities
+     * followed by the buckets.
+     */
+    private static class Schedule extends AbstractList<Entity>
+    {
+        private final Field field;
+        private List<Entity> awake;
+        private final List<List<Entity>> asleep; // The bucket of each species, by its ordinal in the SpeciesRegistry.
+        private final TimingWheel<Entity> deaths; // The sleeping entities by the step they die of age at.
+
+        /**
+         * Split the given entities into awake and sleeping ones.
+         * @param entities The entities, in the order they were created.
+         * @param field The field the entities live in.
+         * @param step The step that is about to be simulated.
+         */
+        Schedule(List<Entity> entities, Field field, int step)
+        {
+            this.field = field;
+            awake = new ArrayList<>(entities.size());
+            asleep = new ArrayList<>(SpeciesRegistry.getSpeciesCount());
+            for (int species = 0; species < SpeciesRegistry.getSpeciesCount(); species++) {
+                asleep.add(new ArrayList<>());
+            }
+            deaths = new TimingWheel<>(step - 1);
+            for (Entity entity : entities) {
+                entity = field.own(entity); // The buckets are not visited, so they must only hold entities of this field.
+                if (entity.isSleeping()) {
+                    bucketOf(entity).add(entity);
+                    deaths.schedule(entity, step + entity.getMaxAge() - entity.getAge());
+                } else {
+                    awake.add(entity);
+                }
+            }
+        }
+
+        /**
+         * Return the bucket of the species of an entity.
+         * @param entity The entity.
+         * @return The bucket.
+         */
+        private List<Entity> bucketOf(Entity entity)
+        {
+            return asleep.get(entity.getSpeciesOrdinal());
+        }
+
+        /**
+         * Put an entity to sleep that has not acted in the current step yet and schedule the step it dies of age at.
+         * @param entity The entity, younger than its maximum age.
+         * @param step The current step.
+         */
+        void putToSleep(Entity entity, int step)
+        {
+            entity.fallAsleep();
+            bucketOf(entity).add(entity);
+            deaths.schedule(entity, step + entity.getMaxAge() - entity.getAge());
+        }
+
+        /**
+         * Wake up the sleeping entities that die of age at the given step and the species that are awake at the given
+         * time and merge them into the awake entities, keeping the order in which the entities were created.
+         * @param step The current step.
+         * @param currentTime The current time.
+         */
+        void wakeUp(int step, int currentTime)
+        {
+            List<Entity> due = new ArrayList<>();
+            deaths.advance(step, due);
+            List<Entity> dying = new ArrayList<>();
+            for (Entity entity : due) {
+                // The entity may have woken up and fallen asleep again, or died and been reused, since it was scheduled.
+                if (entity.isAlive() && entity.isSleeping() && entity.getAge() == entity.getMaxAge()) {
+                    entity.wake();
+                    dying.add(entity);
+                }
+            }
+            if (!dying.isEmpty()) {
+                dying.sort(Comparator.comparingLong(Entity::getOrder));
+                awake = merge(awake, dying);
+            }
+            for (int species = 0; species < asleep.size(); species++) {
+                List<Entity> bucket = asleep.get(species);
+                bucket.removeIf(entity -> !entity.isSleeping()); // Woken up because they die of age.
+                if (!bucket.isEmpty() && SpeciesRegistry.isAwake(species, currentTime)) {
+                    for (Entity entity : bucket) {
+                        entity.wake();
+                    }
+                    awake = merge(awake, bucket);
+                    asleep.set(species, new ArrayList<>());
+                }
+            }
+        }
+
+        /**
+         * Remove the sleeping entities that have been eaten or woken up.
+         * @return The number of sleeping entities left.
+         */
+        int removeDead()
+        {
+            int count = 0;
+            for (List<Entity> bucket : asleep) {
+                bucket.removeIf(entity -> !entity.isAlive() || !entity.isSleeping());
+                count += bucket.size();
+            }
+            return count;
+        }
+
+        /**
+         * Merge two lists of entities that are ordered by when the entities were created.
+         * @param first The first list.
+         * @param second The second list.
+         * @return The merged list.
+         */
+        private static List<Entity> merge(List<Entity> first, List<Entity> second)
+        {
+            List<Entity> merged = new ArrayList<>(first.size() + second.size());
+            int i = 0;
+            int j = 0;
+            while (i < first.size() && j < second.size()) {
+                if (first.get(i).getOrder() <= second.get(j).getOrder()) {
+                    merged.add(first.get(i++));
+                } else {
+                    merged.add(second.get(j++));
+                }
+            }
+            merged.addAll(first.subList(i, first.size()));
+            merged.addAll(second.subList(j, second.size()));
+            return merged;
+        }
+
+        /**
+         * Return an entity of the schedule.
+         * @param index The index, counting the awake entities first.
+         * @return The entity.
+         */
+        @Override
+        public Entity get(int index)
+        {
+            if (index < awake.size()) {
+                return awake.get(index);
+            }
+            index -= awake.size();
+            for (List<Entity> bucket : asleep) {
+                if (index < bucket.size()) {
+                    return bucket.get(index);
+                }
+                index -= bucket.size();
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        /**
+         * Return an iterator over the awake entities followed by the buckets.
+         * @return The iterator.
+         */
+        @Override
+        public Iterator<Entity> iterator()
+        {
+            List<List<Entity>> parts = new ArrayList<>();
+            parts.add(awake);
+            parts.addAll(asleep);
+            return parts.stream().flatMap(List::stream).iterator();
+        }
+
+        /**
+         * Return the number of entities.
+         * @return The number of awake and sleeping entities.
+         */
+        @Override
+        public int size()
+        {
+            int size = awake.size();
+            for (List<Entity> bucket : asleep) {
+                size += bucket.size();
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.List;
+
+/**
+ * Class SequentialEngine - Lets the entities act one after another on the calling thread, in the order they were
+ * created. The entities are kept in an EntityList, so that the dead are removed in a single pass at the end of the
+ * step.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class SequentialEngine implements StepEngine {
+
+    /**
+     * Let every entity act once, in the order of the list.
+     * @param entities The live entities, in the order they were created. If this is an EntityList, dead entities are
+     * removed from it and the newborns are appended to it.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The given list if it is an EntityList, otherwise a new one, with the newborns appended.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        EntityList list = entities instanceof EntityList ? (EntityList) entities : new EntityList(entities);
+        // Provide space for newborn animals.
+        List<Entity> newEntities = list.beginStep();
+        // Let all entities act.
+        for (int i = 0; i < list.size(); i++) {
+            Entity entity = field.own(list.get(i)); // Entities shared with a fork are copied before they change.
+            list.set(i, entity);
+            entity.act(newEntities, currentTime);
+            if (!entity.isAlive()) {
+                list.bury(i);
+            }
+        }
+
+        // Remove the dead and add the newborns to the main list.
+        list.endStep();
+        return list;
+    }
+}
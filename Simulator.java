@@ -1,5 +1,5 @@
 import java.util.*;
-import java.awt.Color;
+import javax.swing.SwingUtilities;
 
 /**
  * Class Simulator - Provides the frame for a simulation. Initializes a newly created map with animals according to a
@@ -22,13 +22,21 @@ public class Simulator
     private static final double TREE_CREATION_PROBABILITY = 0.01;
     private static final double FROG_CREATION_PROBABILITY = 0.02;
     private static final double SNAKE_CREATION_PROBABILITY = 0.06;
+    // The species of each cell when the field is populated, drawn with the creation probabilities.
+    private static final AliasTable POPULATION_TABLE = createPopulationTable();
+    private static final int POPULATION_BANDS = 64; // Fields with at least PARALLEL_CELLS cells are populated in this many bands.
 
     private static final int DAY_LENGTH = 15;
+    private static final int PARALLEL_CELLS = 250000; // Fields with at least this many cells are simulated in parallel.
 
-    private List<Entity> entities;   // List of animals in the field.
-    private Stack<List<Entity>> previousEntities;
-    private Stack<List<Entity>> nextEntities;
+    private List<Entity> entities;   // List of animals in the field at the latest step.
+    private boolean entitiesShared; // If the list of entities is shared with a fork.
+    private List<Entity> shownEntities; // The entities in the field at the current step.
+    private History history; // The previous steps of the simulation.
+    private FrameCache frameCache; // Materialises the steps around the timeline cursor for scrubbing.
     private Field field;  // The current state of the field.
+    private StepEngine engine; // Lets the entities act.
+    private LevelOfDetailEngine levelOfDetail; // Simulates only a region in detail, or null if the whole field is.
     private int step;  // The current step of the simulation.
     private SimulatorView view;  // A graphical view of the simulation.
     private ControlPanel control;
@@ -61,11 +69,11 @@ public class Simulator
             width = 50;//DEFAULT_WIDTH;
         }
 
-        previousEntities = new Stack<>();
-        nextEntities = new Stack<>();
-        
-        entities = new ArrayList<>();
+        history = new History();
+
+        entities = new EntityList();
         field = new Field(depth, width);
+        engine = depth * width >= PARALLEL_CELLS ? new TileParallelEngine() : new ScheduledEngine();
 
         // Create a view of the state of each location in the field.
         view = new SimulatorView(depth, width);
@@ -73,12 +81,96 @@ public class Simulator
         control = new ControlPanel();
         this.step = step;
 
-        setColors(view);
+        frameCache = new FrameCache(history, view, field);
+        history.shedOnLowMemory(() -> SwingUtilities.invokeLater(() -> {
+            // Cached images of shed steps must not be shown any more.
+            frameCache.clear();
+            control.showHistoryStatistics(history.getStatistics());
+            control.updateTimeline(getStep(), history.getFirstStep(), history.getLatestStep());
+        }));
         // Setup a valid starting point.
         reset();
         mapView.setVisible(false);
     }
 
+    /**
+     * Create a fork of the given simulation at its current step. The fork has no views.
+     * @param parent The simulation to fork.
+     */
+    private Simulator(Simulator parent)
+    {
+        Field shared = parent.field;
+        parent.field = shared.fork();
+        field = shared.fork();
+        step = parent.step;
+        entities = parent.shownEntities;
+        shownEntities = entities;
+        entitiesShared = true;
+        parent.entitiesShared = true;
+        history = new History(); // The first frame is recorded when the fork is advanced.
+        // The fork must not change the state of the engine of the parent, e.g. its mode or aggregated tiles.
+        if (parent.levelOfDetail != null) {
+            levelOfDetail = parent.levelOfDetail.fork();
+            engine = levelOfDetail;
+        } else {
+            engine = parent.engine.fork();
+        }
+    }
+
+    /**
+     * Fork the simulation at the current step, e.g. to try out different changes from the same state.
+     * The fork shares the field and the entities with this simulation and each of them only copies the chunks of the
+     * field and the entities it changes, so forking takes constant time. Both can then be advanced independently.
+     * The fork has no views of its own.
+     * @return The fork.
+     */
+    public Simulator fork()
+    {
+        return new Simulator(this);
+    }
+
+    /**
+     * Change how the entities are made to act in the following steps.
+     * @param engine The engine.
+     */
+    public void setStepEngine(StepEngine engine)
+    {
+        if (levelOfDetail != null) {
+            levelOfDetail.setEngine(engine); // The region of interest is still simulated with it.
+        } else {
+            this.engine = engine;
+        }
+    }
+
+    /**
+     * Let the simulation choose between the sequential and the parallel engine by how long recent steps took, see
+     * AdaptiveEngine. The two engines do not give the same results, so runs are no longer reproducible from the seed
+     * once this is used.
+     */
+    public void useAdaptiveEngine()
+    {
+        boolean parallel = field.getDepth() * field.getWidth() >= PARALLEL_CELLS;
+        setStepEngine(new AdaptiveEngine(new ScheduledEngine(), new TileParallelEngine(), parallel));
+    }
+
+    /**
+     * Simulate only the given region, e.g. the part of the field that is looked at, entity by entity from the next
+     * step on, and the rest of the field as numbers of entities, see LevelOfDetailEngine. The region can be moved by
+     * calling this again. A region that covers the whole field simulates it in detail again.
+     * @param top The first row of the region.
+     * @param left The first column of the region.
+     * @param rows The number of rows of the region.
+     * @param cols The number of columns of the region.
+     */
+    public void setRegionOfInterest(int top, int left, int rows, int cols)
+    {
+        if (levelOfDetail == null) {
+            levelOfDetail = new LevelOfDetailEngine(engine);
+            engine = levelOfDetail;
+        }
+        levelOfDetail.setRegionOfInterest(top, left, rows, cols);
+    }
+
     /**
      * Toggle showing the map.
      * @return If the map is showing.
@@ -105,10 +197,26 @@ public class Simulator
     public void simulate(int numSteps)
     {
         int tempStep = this.step+1;
-        while(tempStep <= numSteps && view.isViable(field) && !control.getPaused()) {
+        while(tempStep <= numSteps && isViable() && (control == null || !control.getPaused())) {
             simulateOneStep();
-            tempStep++;
+            tempStep = this.step+1; // A night is skipped at once.
+        }
+    }
+
+    /**
+     * Determine whether the simulation should continue to run.
+     * @return true If there is more than one species alive.
+     */
+    private boolean isViable()
+    {
+        if (levelOfDetail != null) {
+            // A species that has died out in the region may still live in the aggregated tiles.
+            return field.getStats().isViable(levelOfDetail.getAggregatedCounts());
         }
+        if (view != null) {
+            return view.isViable(field);
+        }
+        return field.getStats().isViable(); // A fork has no views.
     }
 
     /**
@@ -131,145 +239,233 @@ public class Simulator
      * Load the previous step of the map.
      */
     public void loadPreviousStep() {
-        step--;
-        field.loadPrevious();
-        nextEntities.push(entities);
-        entities = previousEntities.pop();
-        view.showStatus(step, field);
-        mapView.showStatus(field);
+        seekTo(step - 1);
     }
-    
+
     /**
      * Run the simulation from its current state for a single step.
      * Iterate over the whole field updating the state of each entity.
+     * If every entity is asleep at the next step, the whole night is skipped, see skipNight.
      */
     public void simulateOneStep()
     {
-        if(field.isNext()) {
-            step++;
-            field.loadNext();
-            previousEntities.push(entities);
-            entities = nextEntities.pop();
-            view.showStatus(step, field);
-            mapView.showStatus(field);
+        if (step == history.getLatestStep()) {
+            seekTo(step + Math.max(1, countNightSteps(Integer.MAX_VALUE)));
         } else {
-            step++;
-            // Provide space for newborn animals.
-            List<Entity> newEntities = new ArrayList<>();
-            // Let all entities act.
-            for (Iterator<Entity> it = entities.iterator(); it.hasNext(); ) {
-                Entity entity = it.next();
-                entity.act(newEntities, clock.getCurrentTime(step));
-                if (!entity.isAlive()) {
-                    it.remove();
+            seekTo(step + 1);
+        }
+    }
+
+    /**
+     * Show a recorded step while scrubbing through the timeline, without restoring it. Steps that have not been
+     * materialised yet are shown as soon as the background worker has prepared them.
+     * @param targetStep The step to show.
+     */
+    public void scrubTo(int targetStep)
+    {
+        targetStep = history.findRecordedStep(targetStep, targetStep > step);
+        FrameCache.CachedFrame frame = frameCache.get(targetStep);
+        frameCache.moveCursor(targetStep);
+        if (frame != null) {
+            view.showFrame(targetStep, frame.getImage(), frame.getPopulation());
+        }
+    }
+
+    /**
+     * Jump directly to the given step. Steps that have already been simulated are restored from the history,
+     * later steps are simulated. The views are only updated once the target step has been reached.
+     * @param targetStep The step to jump to. Steps before the first recorded step jump to the first recorded step,
+     * steps that have been shed from the history jump to the nearest recorded step.
+     */
+    public void seekTo(int targetStep)
+    {
+        targetStep = Math.max(targetStep, history.getFirstStep());
+        if (targetStep <= history.getLatestStep()) {
+            step = history.findRecordedStep(targetStep, targetStep > step); // Old steps may have been shed.
+            shownEntities = history.restore(step, field, entities);
+        } else {
+            if (step < history.getLatestStep()) {
+                // Continue from the live entities.
+                step = history.getLatestStep();
+                history.restore(step, field, entities);
+            }
+            shownEntities = entities;
+            while (step < targetStep) {
+                int night = countNightSteps(targetStep);
+                if (night > 1) {
+                    skipNight(night);
+                } else {
+                    advance();
                 }
             }
+        }
+        showStatus();
+    }
 
-            // Add the newly born foxes and rabbits to the main lists.
-            entities.addAll(newEntities);
-            previousEntities.push(entities);
-            view.showStatus(step, field);
-            mapView.showStatus(field);
-
-            //place current items in the stack
-            field.savePrev();
+    /**
+     * Let all entities act for a single step and record the result in the history. Does not update the views.
+     */
+    private void advance()
+    {
+        if (history.getLatestStep() < step) {
+            recordStep(); // The first step of a fork.
+        }
+        if (entitiesShared) {
+            entities = new EntityList(entities);
+            shownEntities = entities;
+            entitiesShared = false;
         }
+        step++;
+        entities = engine.step(entities, field, step, clock.getCurrentTime(step));
+        shownEntities = entities;
+        field.releaseCopies();
+        field.getStore().recycle(); // Nothing looks at the entities that died anymore.
+        recordStep();
     }
-        
+
     /**
-     * Reset the simulation to a starting position.
+     * Record the current step in the history. With a region of interest, the field is empty outside of the tiles
+     * simulated in detail, so only those are looked at.
      */
-    public void reset()
+    private void recordStep()
     {
-        step = 0;
-        entities.clear();
-        populate();
-        
-        // Show the starting state in the view.
-        view.showStatus(step, field);
-        mapView.showStatus(field);
+        if (levelOfDetail != null) {
+            history.record(step, field, levelOfDetail.getDetailedRegion(field));
+        } else {
+            history.record(step, field);
+        }
     }
 
+    /**
+     * Count the steps from the next one on at which no entity is awake, see EntityStore.isAnyoneAwake.
+     * @param targetStep The last step to count.
+     * @return The number of steps, at most one day.
+     */
+    private int countNightSteps(int targetStep)
+    {
+        int steps = 0;
+        while (steps < DAY_LENGTH && step + steps < targetStep
+                && !field.getStore().isAnyoneAwake(clock.getCurrentTime(step + steps + 1))) {
+            steps++;
+        }
+        return steps;
+    }
 
     /**
-     * Set the colors for each animal type.
-     * @param view The SimulatorView the colors refer to.
+     * Simulate several steps at which no entity is awake in a single pass over the entity store. Asleep, the
+     * entities only age and regain energy, see EntityStore.fastForward. Only the last of the steps is recorded in
+     * the history.
+     * @param steps The number of steps, see countNightSteps.
      */
-    private void setColors(SimulatorView view)
+    private void skipNight(int steps)
     {
-        view.setColor(Gazelle.class, Color.ORANGE);
-        view.setColor(Lion.class, Color.BLUE);
-        view.setColor(Eagle.class, Color.RED);
-        view.setColor(Snake.class, Color.PINK);
+        if (history.getLatestStep() < step) {
+            recordStep(); // The first step of a fork.
+        }
+        // Entities shared with a fork are copied, so that the store of the field holds all of them.
+        List<Entity> owned = new EntityList();
+        for (Entity entity : entities) {
+            owned.add(field.own(entity));
+        }
+        List<Entity> dying = new ArrayList<>();
+        field.getStore().fastForward(step, steps, dying);
+        for (Entity entity : dying) {
+            entity.setDead();
+        }
+        owned.removeIf(entity -> !entity.isAlive());
+        entities = owned;
+        shownEntities = entities;
+        entitiesShared = false;
+        step += steps;
+        field.releaseCopies();
+        field.getStore().recycle();
+        recordStep();
+    }
 
-        Color frogGreen = new Color(0, 255, 64);
-        view.setColor(Frog.class, frogGreen);
+    /**
+     * Show the current step in the views.
+     */
+    private void showStatus()
+    {
+        if (view == null) {
+            return; // A fork has no views.
+        }
+        view.showStatus(step, engine.getMode(), field);
+        mapView.showStatus(field);
+        control.showHistoryStatistics(history.getStatistics());
+        control.showEngineStatistics(engine.getStatistics() + " " + field.getStore().getPoolStatistics());
+        control.updateTimeline(step, history.getFirstStep(), history.getLatestStep());
+    }
 
-        Color brown = new Color(90, 60, 35);
-        view.setColor(Tree.class, brown);
+    /**
+     * Reset the simulation to a starting position.
+     */
+    public void reset()
+    {
+        step = 0;
+        entities = new EntityList();
+        entitiesShared = false;
+        shownEntities = entities;
+        populate();
+        if (levelOfDetail != null) {
+            levelOfDetail.clear(); // The whole field has been populated with entities again.
+        }
+        history.clear();
+        if (frameCache != null) {
+            frameCache.clear();
+        }
+        recordStep();
+        
+        // Show the starting state in the view.
+        showStatus();
+    }
 
-        Color green = new Color(108, 154, 29);
-        view.setColor(Grass.class, green);
 
-    }
-    
     /**
-     * Randomly populate the field with entities.
+     * Randomly populate the field with entities. Each cell gets an entity of a species with the creation probability
+     * of the species, or stays empty. Large fields are populated in parallel, see ParallelPopulator.
      */
     private void populate()
     {
         field.clear();
-        EntityLevelMapper entityLevelMap = new EntityLevelMapper();
+        field.getStore().clear();
+        if (field.getDepth() * field.getWidth() >= PARALLEL_CELLS) {
+            new ParallelPopulator(POPULATION_TABLE, POPULATION_BANDS).populate(field, entities);
+            return;
+        }
+        Random rand = Randomizer.getRandom();
         for (int row = 0; row < field.getDepth(); row++)
         {
             for (int col = 0; col < field.getWidth(); col++)
             {
-                Class newEntityClass = getRandomEntity();
-                if (newEntityClass != null) {
-                    Location location = new Location(row, col, entityLevelMap.getEntityLevel(newEntityClass)); //the entityLevelMap takes the class of the entity and returns the level it should be stored int.
-                    Entity newEntity = null;
-                    if (newEntityClass == Grass.class)
-                        newEntity = new Grass(true, field, location);
-                    else if (newEntityClass == Tree.class)
-                        newEntity = new Tree(true, field, location);
-                    else if (newEntityClass == Frog.class)
-                        newEntity = new Frog(field, location);
-                    else if (newEntityClass == Gazelle.class)
-                        newEntity = new Gazelle(field, location);
-                    else if (newEntityClass == Lion.class)
-                        newEntity = new Lion(field, location);
-                    else if (newEntityClass == Eagle.class)
-                        newEntity = new Eagle(field, location);
-                    else if (newEntityClass == Snake.class)
-                        newEntity = new Snake(field, location);
-                    if (newEntity != null)
-                        entities.add(newEntity);
+                int species = POPULATION_TABLE.sample(rand); // A single draw per cell.
+                if (species < SpeciesRegistry.getSpeciesCount()) {
+                    Location location = new Location(row, col, SpeciesRegistry.getLevel(species)); //Every species is stored at its own level.
+                    entities.add(SpeciesRegistry.createRandom(species, field, location));
                 }
             }
         }
     }
 
     /**
-     * Randomly selects an entity type. Used in populate() to place animals in the map.
-     * @return The selected entity type.
+     * Build the table that populate draws the species of each cell from. The last outcome leaves the cell empty.
+     * @return The table.
      */
-    private Class getRandomEntity()
+    private static AliasTable createPopulationTable()
     {
-        Random rand = Randomizer.getRandom();
-        if (rand.nextDouble() <= GRASS_CREATION_PROBABILITY)
-            return Grass.class;
-        else if (rand.nextDouble() <= TREE_CREATION_PROBABILITY + GRASS_CREATION_PROBABILITY)
-            return Tree.class;
-        else if (rand.nextDouble() <= TREE_CREATION_PROBABILITY + GRASS_CREATION_PROBABILITY + LION_CREATION_PROBABILITY)
-            return Lion.class;
-        else if (rand.nextDouble() <= TREE_CREATION_PROBABILITY + GRASS_CREATION_PROBABILITY + LION_CREATION_PROBABILITY + GAZELLE_CREATION_PROBABILITY)
-            return Gazelle.class;
-        else if (rand.nextDouble() <= TREE_CREATION_PROBABILITY + GRASS_CREATION_PROBABILITY + LION_CREATION_PROBABILITY + GAZELLE_CREATION_PROBABILITY + FROG_CREATION_PROBABILITY)
-            return Frog.class;
-        else if (rand.nextDouble() <= TREE_CREATION_PROBABILITY + GRASS_CREATION_PROBABILITY + LION_CREATION_PROBABILITY + GAZELLE_CREATION_PROBABILITY + FROG_CREATION_PROBABILITY + EAGLE_CREATION_PROBABILITY)
-            return Eagle.class;
-        else if (rand.nextDouble() <= TREE_CREATION_PROBABILITY + GRASS_CREATION_PROBABILITY + LION_CREATION_PROBABILITY + GAZELLE_CREATION_PROBABILITY + FROG_CREATION_PROBABILITY + EAGLE_CREATION_PROBABILITY+SNAKE_CREATION_PROBABILITY)
-            return Snake.class;
-        else return null; //No entity at this field
+        double[] weights = new double[SpeciesRegistry.getSpeciesCount() + 1];
+        weights[SpeciesRegistry.GRASS] = GRASS_CREATION_PROBABILITY;
+        weights[SpeciesRegistry.TREE] = TREE_CREATION_PROBABILITY;
+        weights[SpeciesRegistry.FROG] = FROG_CREATION_PROBABILITY;
+        weights[SpeciesRegistry.GAZELLE] = GAZELLE_CREATION_PROBABILITY;
+        weights[SpeciesRegistry.LION] = LION_CREATION_PROBABILITY;
+        weights[SpeciesRegistry.EAGLE] = EAGLE_CREATION_PROBABILITY;
+        weights[SpeciesRegistry.SNAKE] = SNAKE_CREATION_PROBABILITY;
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        weights[weights.length - 1] = Math.max(0, 1 - total); // No entity at this field
+        return new AliasTable(weights);
     }
 }
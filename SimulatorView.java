@@ -1,7 +1,5 @@
 import java.awt.*;
 import javax.swing.*;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 /**
  * A graphical view of the simulation grid.
@@ -26,10 +24,9 @@ public class SimulatorView extends JFrame
     private JLabel stepLabel, population;
     private FieldView fieldView;
     
-    // A map for storing colors for participants in the simulation
-    private Map<Class, Color> colors;
+    // The color of each species, indexed by its ordinal in the SpeciesRegistry
+    private final Color[] colors;
     // A statistics object computing and storing simulation information
-    private FieldStats stats;
 
     /**
      * Create a view of the given width and height.
@@ -38,8 +35,10 @@ public class SimulatorView extends JFrame
      */
     public SimulatorView(int height, int width)
     {
-        stats = new FieldStats();
-        colors = new LinkedHashMap<>();
+        colors = new Color[SpeciesRegistry.getSpeciesCount()];
+        for (int species = 0; species < colors.length; species++) {
+            colors[species] = SpeciesRegistry.getColor(species);
+        }
 
         setTitle("African Environment Simulation");
         stepLabel = new JLabel(STEP_PREFIX, JLabel.CENTER);
@@ -65,17 +64,22 @@ public class SimulatorView extends JFrame
      * @param animalClass The animal's Class object.
      * @param color The color to be used for the given class.
      */
-    public void setColor(Class animalClass, Color color)
+    public void setColor(Class<? extends Entity> animalClass, Color color)
     {
-        colors.put(animalClass, color);
+        colors[SpeciesRegistry.ordinalOf(animalClass)] = color;
     }
 
     /**
+     * @param animalClass The animal's Class object, or null for an empty location.
      * @return The color to be used for a given class of animal.
      */
-    private Color getColor(Class animalClass)
+    public Color getColor(Class<? extends Entity> animalClass)
     {
-        Color col = colors.get(animalClass);
+        if(animalClass == null) {
+            return EMPTY_COLOR;
+        }
+        int species = SpeciesRegistry.ordinalOf(animalClass);
+        Color col = species < 0 ? null : colors[species];
         if(col == null) {
             // no color defined for this class
             return UNKNOWN_COLOR;
@@ -86,19 +90,18 @@ public class SimulatorView extends JFrame
     }
 
     /**
-     * MOVE THE STATS BECAUSE NOT ALL ENTITIES THAT EXISTS ARE SHOWN AND STILL NEED TO BE COUNTED
      * Show the current status of the field.
      * @param step Which iteration step it is.
+     * @param mode The mode the step engine runs in, see StepEngine.getMode, or an empty string.
      * @param field The field whose status is to be displayed.
      */
-    public void showStatus(int step, Field field)
+    public void showStatus(int step, String mode, Field field)
     {
         if(!isVisible()) {
             setVisible(true);
         }
             
-        stepLabel.setText(STEP_PREFIX + step);
-        stats.reset();
+        stepLabel.setText(STEP_PREFIX + step + (mode.isEmpty() ? "" : " (" + mode + ")"));
         
         fieldView.preparePaint();
 
@@ -106,28 +109,40 @@ public class SimulatorView extends JFrame
             for(int col = 0; col < field.getWidth(); col++) {
                 Object entity = field.getObjectOnTop(row, col);
                 if(entity != null) {
-                    fieldView.drawMark(col, row, getColor(entity.getClass()));
+                    fieldView.drawMark(col, row, colors[((Entity) entity).getSpeciesOrdinal()]);
                 }
                 else {
                     fieldView.drawMark(col, row, EMPTY_COLOR);
                 }
             }
         }
-        stats.generateCounts(field);
-        stats.countFinished();
-
-        population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
+        population.setText(POPULATION_PREFIX + field.getStats().getPopulationDetails());
         fieldView.repaint();
     }
 
 
+    /**
+     * Show a step that has already been materialised, e.g. while scrubbing through the timeline.
+     * @param step Which iteration step it is.
+     * @param image The image of the field, with one pixel per location.
+     * @param populationDetails The description of the population at that step.
+     */
+    public void showFrame(int step, Image image, String populationDetails)
+    {
+        stepLabel.setText(STEP_PREFIX + step);
+        fieldView.preparePaint();
+        fieldView.drawFrame(image);
+        population.setText(POPULATION_PREFIX + populationDetails);
+        fieldView.repaint();
+    }
+
     /**
      * Determine whether the simulation should continue to run.
      * @return true If there is more than one species alive.
      */
     public boolean isViable(Field field)
     {
-        return stats.isViable(field);
+        return field.getStats().isViable();
     }
     
     /**
@@ -198,6 +213,14 @@ public class SimulatorView extends JFrame
             g.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
         }
 
+        /**
+         * Paint a whole image of the field, scaled to the grid.
+         */
+        public void drawFrame(Image image)
+        {
+            g.drawImage(image, 0, 0, gridWidth * xScale, gridHeight * yScale, null);
+        }
+
         /**
          * The field view component needs to be redisplayed. Copy the
          * internal image to screen.
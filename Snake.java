@@ -6,7 +6,7 @@ import java.util.List;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public class Snake extends Animal {
+public final class Snake extends Animal {
     // Characteristics shared by all snakes.
     private static final int BREEDING_AGE = AnimalStats.SNAKE.getBreedingAge();  // The age at which a snake can start to breed.
     private static final int MAX_LITTER_SIZE = AnimalStats.SNAKE.getMaxLitterSize();     // The maximum number of births.
@@ -29,11 +29,24 @@ public class Snake extends Animal {
 
     public Snake(Field field, Location location, double size, double scent) {
         super(field, location);
-        age = 0;
-        energyLevel = MAX_ENERGY;
-        this.size = getMutationValue(size);
-        this.scent = getMutationValue(scent);
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(0);
+        setEnergyLevel(MAX_ENERGY);
+        setSize(getMutationValue(size));
+        setScent(getMutationValue(scent));
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
+    }
+
+    /**
+     * Create a snake of the given sex without drawing from the randomizer, e.g. when it is restored from a history
+     * frame. The rest of its state is expected to be set afterwards.
+     * @param field    The field currently occupied.
+     * @param location The location within the field.
+     * @param sex      The sex of the snake. True is male.
+     */
+    public Snake(Field field, Location location, boolean sex)
+    {
+        super(field, location, sex);
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -44,12 +57,12 @@ public class Snake extends Animal {
     public Snake(Field field, Location location)
     {
         super(field, location);
-        age = rand.nextInt(MAX_AGE);
-        energyLevel = rand.nextInt(MAX_ENERGY);
-        availableForCoitus = rand.nextBoolean();
-        size = AnimalStats.SNAKE.getDefaultSize();
-        scent = AnimalStats.SNAKE.getDefaultScent();
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        setAge(rand.nextInt(MAX_AGE));
+        setEnergyLevel(rand.nextInt(MAX_ENERGY));
+        setAvailableForCoitus(rand.nextBoolean());
+        setSize(AnimalStats.SNAKE.getDefaultSize());
+        setScent(AnimalStats.SNAKE.getDefaultScent());
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
     }
 
     /**
@@ -65,7 +78,7 @@ public class Snake extends Animal {
         super.act(newSnakes, currentTime);
         if (isAwake(currentTime)) { // The snake is active
             if (isAlive()) {
-                if (sex && foundMate((int) scent)) {
+                if (getSex() && foundMate((int) getScent())) {
                     giveBirth(newSnakes);
                 }
                 // Move towards a source of food if found.
@@ -85,11 +98,14 @@ public class Snake extends Animal {
         }
     }
     /**
-     * Updates the snake's nutrition value, depending on its age.
+     * Returns the snake's nutrition value at the given age.
+     * @param age The age.
+     * @return The food value.
      */
-    protected void updateFoodValue()
+    @Override
+    protected int getFoodValueAt(int age)
     {
-        foodValue = (int) Math.round(3*Math.log(Math.pow(age, 3))); //log grows fast in the beginning and slower at later stages
+        return (int) Math.round(3*Math.log(Math.pow(age, 3))); //log grows fast in the beginning and slower at later stages
     }
 
     /**
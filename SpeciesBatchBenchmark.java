@@ -0,0 +1,113 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class SpeciesBatchBenchmark - Compares the SpeciesBatchEngine, which lets every species act through a call site of
+ * its own, with the SequentialEngine, which lets all entities act through a single call site, in the order they were
+ * created. Run it with the width and depth of the field and the number of steps as arguments, e.g.
+ * "java SpeciesBatchBenchmark 200 150 100". Both engines simulate the same field from the same seed several times,
+ * so that they are compiled, and the best run of each is reported.
+ * The populations of the two engines drift apart, as the order the entities act in differs, so the number of acts
+ * per second is the fairer figure.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class SpeciesBatchBenchmark {
+
+    private static final int RUNS = 12;
+    private static final long SEED = 42; // The seed the species of the cells are drawn from.
+    private static final Time clock = new Time(15);
+
+    /**
+     * Run the benchmark.
+     * @param args The width and depth of the field and the number of steps, 200 by 150 and 100 steps if not given.
+     */
+    public static void main(String[] args)
+    {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        System.out.printf("Field of %d x %d cells, %d steps, best of %d runs%n", width, depth, steps, RUNS);
+        double[] mixed = new double[2];
+        double[] batched = new double[2];
+        for (int run = 0; run < RUNS; run++) {
+            // The engines take turns, so that both run as long after the start of the benchmark.
+            best(mixed, time(new SequentialEngine(), depth, width, steps));
+            best(batched, time(new SpeciesBatchEngine(), depth, width, steps));
+        }
+        report("Mixed list (sequential)", mixed);
+        report("Per species (batches)", batched);
+        System.out.printf("Per species acts %.2fx as fast%n", batched[1] / mixed[1]);
+    }
+
+    /**
+     * Simulate a newly populated field with an engine.
+     * @param engine The engine.
+     * @param depth The number of rows of the field.
+     * @param width The number of columns of the field.
+     * @param steps The number of steps.
+     * @return The steps per second and the acts per second.
+     */
+    private static double[] time(StepEngine engine, int depth, int width, int steps)
+    {
+        Randomizer.reset();
+        Field field = new Field(depth, width);
+        List<Entity> entities = populate(field, new Random(SEED));
+        long acts = 0;
+        long start = System.nanoTime();
+        for (int step = 1; step <= steps; step++) {
+            acts += entities.size();
+            entities = engine.step(entities, field, step, clock.getCurrentTime(step));
+            field.getStore().recycle();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new double[] {steps / seconds, acts / seconds};
+    }
+
+    /**
+     * Fill a field with entities of random species.
+     * @param field The empty field.
+     * @param rand The random generator that chooses the species.
+     * @return The entities, in the order they were created.
+     */
+    private static List<Entity> populate(Field field, Random rand)
+    {
+        List<Entity> entities = new ArrayList<>();
+        int species = SpeciesRegistry.getSpeciesCount();
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                int ordinal = rand.nextInt(4 * species); // Three cells in four stay empty.
+                if (ordinal < species) {
+                    Location location = new Location(row, col, SpeciesRegistry.getLevel(ordinal));
+                    entities.add(SpeciesRegistry.createRandom(ordinal, field, location));
+                }
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Keep the better of two results.
+     * @param best The best steps and acts per second so far, which are replaced if the run was faster.
+     * @param run The steps and acts per second of a run.
+     */
+    private static void best(double[] best, double[] run)
+    {
+        if (run[1] > best[1]) {
+            best[0] = run[0];
+            best[1] = run[1];
+        }
+    }
+
+    /**
+     * Print the result of an engine.
+     * @param name The name of the engine.
+     * @param result Its best steps and acts per second.
+     */
+    private static void report(String name, double[] result)
+    {
+        System.out.printf("%-24s %8.1f steps/s, %6.2f M acts/s%n", name, result[0], result[1] / 1e6);
+    }
+}
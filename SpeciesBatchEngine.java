@@ -0,0 +1,207 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Class SpeciesBatchEngine - Lets the entities act one species after another on the calling thread. The entities of
+ * each species are kept in a list of their own, and every list is run as a loop of its own, so the entities acting
+ * in a row are all of the same class. Each species is called through a call site of its own, on its own class, so
+ * the compiler sees a single class at every call and can inline its act, see SpeciesBatchBenchmark. The species act in a fixed order, the order of their ordinals in the
+ * SpeciesRegistry (plants first), and within a species in the order they were created.
+ * All entities draw from the shared randomizer in this order, so the result is the same every time it is run from
+ * the same seed, but not the same as with the SequentialEngine: an entity that acts before another species, e.g.
+ * the grass before the frogs, now sees all entities of that species as they were before the step. Entities that
+ * have been eaten do not act, and newborns act from the next step on, as with the other engines.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class SpeciesBatchEngine implements StepEngine {
+
+    private int batchCount; // The number of species that acted in the latest step.
+
+    /**
+     * Let every entity act once, one species after another.
+     * @param entities The live entities. If this is the list returned by the previous step, its lists of species
+     * are reused.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The entities alive after the step, species by species, each in the order they were created.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        Batches batches;
+        if (entities instanceof Batches && ((Batches) entities).field == field) {
+            batches = (Batches) entities;
+        } else {
+            batches = new Batches(entities, field);
+        }
+
+        List<Entity> newEntities = new ArrayList<>();
+        batchCount = 0;
+        for (int species = 0; species < batches.species.size(); species++) {
+            List<Entity> batch = batches.species.get(species);
+            if (!batch.isEmpty()) {
+                actAll(batch, species, field, newEntities, currentTime);
+                batchCount++;
+            }
+        }
+        // Entities can be eaten by a species that acts after them, so the dead are only removed at the end.
+        for (List<Entity> batch : batches.species) {
+            batch.removeIf(entity -> !entity.isAlive());
+        }
+        for (Entity entity : newEntities) {
+            if (entity.isAlive()) {
+                batches.add(entity);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Let the entities of a single species act, in the order of their list.
+     * @param batch The entities of the species.
+     * @param species The ordinal of the species.
+     * @param field The field the entities live in.
+     * @param newEntities A list to receive the newborns.
+     * @param currentTime The time of the day.
+     */
+    private static void actAll(List<Entity> batch, int species, Field field, List<Entity> newEntities, int currentTime)
+    {
+        for (int i = 0; i < batch.size(); i++) {
+            Entity entity = field.own(batch.get(i)); // Entities shared with a fork are copied before they change.
+            batch.set(i, entity);
+            if (entity.isAlive()) { // It may have been eaten earlier in this step.
+                act(entity, species, newEntities, currentTime);
+            }
+        }
+    }
+
+    /**
+     * Let an entity act through the call site of its species, on its own class, so that no call site sees more
+     * than one class.
+     * @param entity The entity.
+     * @param species The ordinal of its species.
+     * @param newEntities A list to receive the newborns.
+     * @param currentTime The time of the day.
+     */
+    private static void act(Entity entity, int species, List<Entity> newEntities, int currentTime)
+    {
+        switch (species) {
+            case SpeciesRegistry.GRASS:
+                ((Grass) entity).act(newEntities, currentTime);
+                break;
+            case SpeciesRegistry.TREE:
+                ((Tree) entity).act(newEntities, currentTime);
+                break;
+            case SpeciesRegistry.FROG:
+                ((Frog) entity).act(newEntities, currentTime);
+                break;
+            case SpeciesRegistry.GAZELLE:
+                ((Gazelle) entity).act(newEntities, currentTime);
+                break;
+            case SpeciesRegistry.LION:
+                ((Lion) entity).act(newEntities, currentTime);
+                break;
+            case SpeciesRegistry.EAGLE:
+                ((Eagle) entity).act(newEntities, currentTime);
+                break;
+            case SpeciesRegistry.SNAKE:
+                ((Snake) entity).act(newEntities, currentTime);
+                break;
+            default:
+                entity.act(newEntities, currentTime); // A species without a call site of its own yet.
+        }
+    }
+
+    /**
+     * Return statistics about the latest step.
+     * @return How many species have acted.
+     */
+    @Override
+    public String getStatistics()
+    {
+        return String.format("Species batch engine: %d species", batchCount);
+    }
+
+    /**
+     * The entities of a field, split into a list for each species, in the order the species act. As a list, it
+     * contains the lists one after another.
+     */
+    private static class Batches extends AbstractList<Entity>
+    {
+        private final Field field;
+        private final List<List<Entity>> species; // The list of each species, by its ordinal.
+
+        /**
+         * Split the given entities by their species.
+         * @param entities The entities, in the order they were created.
+         * @param field The field the entities live in.
+         */
+        Batches(List<Entity> entities, Field field)
+        {
+            this.field = field;
+            species = new ArrayList<>(SpeciesRegistry.getSpeciesCount());
+            for (int ordinal = 0; ordinal < SpeciesRegistry.getSpeciesCount(); ordinal++) {
+                species.add(new ArrayList<>());
+            }
+            for (Entity entity : entities) {
+                add(entity);
+            }
+        }
+
+        /**
+         * Add an entity to the end of the list of its species.
+         * @param entity The entity.
+         * @return True.
+         */
+        @Override
+        public boolean add(Entity entity)
+        {
+            return species.get(entity.getSpeciesOrdinal()).add(entity);
+        }
+
+        /**
+         * Return an entity of the list.
+         * @param index The index, counting the species in the order they act.
+         * @return The entity.
+         */
+        @Override
+        public Entity get(int index)
+        {
+            for (List<Entity> batch : species) {
+                if (index < batch.size()) {
+                    return batch.get(index);
+                }
+                index -= batch.size();
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        /**
+         * Return an iterator over the species in the order they act.
+         * @return The iterator.
+         */
+        @Override
+        public Iterator<Entity> iterator()
+        {
+            return species.stream().flatMap(List::stream).iterator();
+        }
+
+        /**
+         * Return the number of entities.
+         * @return The number of entities of all species.
+         */
+        @Override
+        public int size()
+        {
+            int size = 0;
+            for (List<Entity> batch : species) {
+                size += batch.size();
+            }
+            return size;
+        }
+    }
+}
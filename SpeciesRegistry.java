@@ -0,0 +1,341 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class SpeciesRegistry - Lists every species of the simulation and assigns each of them an ordinal. Everything the
+ * simulation needs to know about a species - its level in the map, its preferred environment, its prey, its colour,
+ * its statistics and how to create it - is kept in arrays indexed by that ordinal, so looking it up is a single array
+ * access. The prey of each species is also kept as a bitmask with one bit per ordinal, so checking if a species eats
+ * another one is a single bit test. Every entity knows the ordinal of its species, see Entity.getSpeciesOrdinal.
+ * A new species is added by adding an entry to each of the arrays.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class SpeciesRegistry {
+
+    // The ordinals of the species.
+    public static final int GRASS = 0;
+    public static final int TREE = 1;
+    public static final int FROG = 2;
+    public static final int GAZELLE = 3;
+    public static final int LION = 4;
+    public static final int EAGLE = 5;
+    public static final int SNAKE = 6;
+
+    private static final List<Class<? extends Entity>> CLASSES = Collections.unmodifiableList(Arrays.asList(
+            Grass.class, Tree.class, Frog.class, Gazelle.class, Lion.class, Eagle.class, Snake.class));
+
+    private static final int[] LEVELS = {
+            Plant.PlantStats.GRASS.getLevel(), Plant.PlantStats.TREE.getLevel(), Animal.AnimalStats.FROG.getLevel(),
+            Animal.AnimalStats.GAZELLE.getLevel(), Animal.AnimalStats.LION.getLevel(),
+            Animal.AnimalStats.EAGLE.getLevel(), Animal.AnimalStats.SNAKE.getLevel()};
+
+    // The environment each species propagates best in, or null if it has no preference.
+    private static final String[] ENVIRONMENTS = {"Savanna", "Forest", null, "Savanna", "Savanna", "Desert", "Forest"};
+
+    // The species each species eats, in the order it looks for them.
+    private static final int[][] PREY = {{}, {}, {}, {GRASS, TREE}, {GAZELLE}, {GAZELLE, FROG}, {FROG}};
+
+    private static final Color[] COLORS = {new Color(108, 154, 29), new Color(90, 60, 35), new Color(0, 255, 64),
+            Color.ORANGE, Color.BLUE, Color.RED, Color.PINK};
+
+    private static final int[] MAX_AGES = new int[CLASSES.size()];
+    private static final int[] BREEDING_AGES = new int[CLASSES.size()];
+    private static final int[] MAX_LITTER_SIZES = new int[CLASSES.size()];
+    private static final double[] BREEDING_PROBABILITIES = new double[CLASSES.size()];
+    private static final double[] BAD_ENVIRONMENT_BREEDING_PROBABILITIES = new double[CLASSES.size()];
+    private static final int[] ACTIVITY_STARTS = new int[CLASSES.size()];
+    private static final int[] ACTIVITY_ENDS = new int[CLASSES.size()];
+
+    // Create an entity with a random state, e.g. when the field is populated.
+    private static final Factory[] RANDOM_FACTORIES = {
+            (field, location) -> new Grass(true, field, location), (field, location) -> new Tree(true, field, location),
+            Frog::new, Gazelle::new, Lion::new, Eagle::new, Snake::new};
+
+    // Create an entity without drawing from the randomizer, e.g. when it is restored from the history.
+    private static final Factory[] RESTORE_FACTORIES = {
+            (field, location) -> new Grass(false, field, location), (field, location) -> new Tree(false, field, location),
+            (field, location) -> new Frog(field, location, false), (field, location) -> new Gazelle(field, location, false),
+            (field, location) -> new Lion(field, location, false), (field, location) -> new Eagle(field, location, false),
+            (field, location) -> new Snake(field, location, false)};
+
+    // Create the young of an animal, which inherits the size and scent of its parent. Plants have no such young.
+    private static final YoungFactory[] YOUNG_FACTORIES = {
+            null, null, Frog::new, Gazelle::new, Lion::new, Eagle::new, Snake::new};
+
+    private static final int[] PREY_MASKS = new int[CLASSES.size()]; // Bit i is set if a species eats species i.
+    private static final int[][] PREY_LEVELS = new int[CLASSES.size()][]; // The distinct levels of the prey of a species.
+    private static final int LEVEL_COUNT;
+
+    static {
+        setPlantStats(GRASS, Plant.PlantStats.GRASS);
+        setPlantStats(TREE, Plant.PlantStats.TREE);
+        setAnimalStats(FROG, Animal.AnimalStats.FROG);
+        setAnimalStats(GAZELLE, Animal.AnimalStats.GAZELLE);
+        setAnimalStats(LION, Animal.AnimalStats.LION);
+        setAnimalStats(EAGLE, Animal.AnimalStats.EAGLE);
+        setAnimalStats(SNAKE, Animal.AnimalStats.SNAKE);
+        int levels = 0;
+        for (int species = 0; species < CLASSES.size(); species++) {
+            int levelMask = 0;
+            for (int prey : PREY[species]) {
+                PREY_MASKS[species] |= 1 << prey;
+                levelMask |= 1 << LEVELS[prey];
+            }
+            PREY_LEVELS[species] = new int[Integer.bitCount(levelMask)];
+            int count = 0;
+            for (int prey : PREY[species]) { // In the order the prey is listed in.
+                if ((levelMask & (1 << LEVELS[prey])) != 0) {
+                    PREY_LEVELS[species][count++] = LEVELS[prey];
+                    levelMask &= ~(1 << LEVELS[prey]);
+                }
+            }
+            levels = Math.max(levels, LEVELS[species] + 1);
+        }
+        LEVEL_COUNT = levels;
+    }
+
+    /**
+     * Copy the statistics of a plant into the arrays.
+     * @param species The ordinal of the species.
+     * @param stats The statistics.
+     */
+    private static void setPlantStats(int species, Plant.PlantStats stats)
+    {
+        MAX_AGES[species] = stats.getMaxAge();
+        BREEDING_AGES[species] = stats.getBreedingAge();
+        MAX_LITTER_SIZES[species] = stats.getMaxLitterSize();
+        BREEDING_PROBABILITIES[species] = stats.getBreeding_Probability();
+        BAD_ENVIRONMENT_BREEDING_PROBABILITIES[species] = stats.getBadEnvironmentBreedingProbability();
+        ACTIVITY_STARTS[species] = stats.getTimeActivityStart();
+        ACTIVITY_ENDS[species] = stats.getTimeActivityEnd();
+    }
+
+    /**
+     * Copy the statistics of an animal into the arrays.
+     * @param species The ordinal of the species.
+     * @param stats The statistics.
+     */
+    private static void setAnimalStats(int species, Animal.AnimalStats stats)
+    {
+        MAX_AGES[species] = stats.getMaxAge();
+        BREEDING_AGES[species] = stats.getBreedingAge();
+        MAX_LITTER_SIZES[species] = stats.getMaxLitterSize();
+        BREEDING_PROBABILITIES[species] = stats.getBreeding_Probability();
+        BAD_ENVIRONMENT_BREEDING_PROBABILITIES[species] = stats.getBadEnvironmentBreedingProbability();
+        ACTIVITY_STARTS[species] = stats.getTimeActivityStart();
+        ACTIVITY_ENDS[species] = stats.getTimeActivityEnd();
+    }
+
+    /**
+     * @return The number of species.
+     */
+    public static int getSpeciesCount()
+    {
+        return CLASSES.size();
+    }
+
+    /**
+     * Return the ordinal of a species. Only needed once per entity, see Entity.getSpeciesOrdinal.
+     * @param species The class of the species.
+     * @return The ordinal, or -1 if the class is not a species of the simulation.
+     */
+    public static int ordinalOf(Class<? extends Entity> species)
+    {
+        for (int ordinal = 0; ordinal < CLASSES.size(); ordinal++) {
+            if (CLASSES.get(ordinal) == species) {
+                return ordinal;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The class of the species.
+     */
+    public static Class<? extends Entity> getSpeciesClass(int species)
+    {
+        return CLASSES.get(species);
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The level the species lives at in the map.
+     */
+    public static int getLevel(int species)
+    {
+        return LEVELS[species];
+    }
+
+    /**
+     * @return The number of levels the species live at.
+     */
+    public static int getLevelCount()
+    {
+        return LEVEL_COUNT;
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The environment the species propagates best in, or null if it has no preference.
+     */
+    public static String getPreferredEnvironment(int species)
+    {
+        return ENVIRONMENTS[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @param prey The ordinal of another species.
+     * @return If the first species eats the second one.
+     */
+    public static boolean isPrey(int species, int prey)
+    {
+        return (PREY_MASKS[species] & (1 << prey)) != 0;
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The distinct levels the prey of the species lives at. Must not be changed.
+     */
+    public static int[] getPreyLevels(int species)
+    {
+        return PREY_LEVELS[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The colour the species is shown in.
+     */
+    public static Color getColor(int species)
+    {
+        return COLORS[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The age the species dies at.
+     */
+    public static int getMaxAge(int species)
+    {
+        return MAX_AGES[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The age the species can breed from.
+     */
+    public static int getBreedingAge(int species)
+    {
+        return BREEDING_AGES[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The largest number of young the species has at once.
+     */
+    public static int getMaxLitterSize(int species)
+    {
+        return MAX_LITTER_SIZES[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The probability the species breeds with in its preferred environment.
+     */
+    public static double getBreedingProbability(int species)
+    {
+        return BREEDING_PROBABILITIES[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @return The probability the species breeds with in other environments.
+     */
+    public static double getBadEnvironmentBreedingProbability(int species)
+    {
+        return BAD_ENVIRONMENT_BREEDING_PROBABILITIES[species];
+    }
+
+    /**
+     * @param species The ordinal of a species.
+     * @param currentTime The time of the day.
+     * @return If the species is awake at that time.
+     */
+    public static boolean isAwake(int species, int currentTime)
+    {
+        return ACTIVITY_STARTS[species] <= currentTime && ACTIVITY_ENDS[species] >= currentTime;
+    }
+
+    /**
+     * Create an entity of a species with a random state.
+     * @param species The ordinal of the species.
+     * @param field The field to put the entity in.
+     * @param location The location of the entity.
+     * @return The entity.
+     */
+    public static Entity createRandom(int species, Field field, Location location)
+    {
+        return RANDOM_FACTORIES[species].create(field, location);
+    }
+
+    /**
+     * Create an entity of a species without drawing from the randomizer. Its state is expected to be set afterwards.
+     * @param species The ordinal of the species.
+     * @param field The field to put the entity in.
+     * @param location The location of the entity.
+     * @return The entity.
+     */
+    public static Entity createForRestore(int species, Field field, Location location)
+    {
+        return RESTORE_FACTORIES[species].create(field, location);
+    }
+
+    /**
+     * Create the young of an animal, which inherits the size and scent of its parent with a mutation.
+     * @param species The ordinal of the species, which must be an animal.
+     * @param field The field to put the young in.
+     * @param location The location of the young.
+     * @param size The size of the parent.
+     * @param scent The scent of the parent.
+     * @return The young.
+     */
+    public static Entity createYoung(int species, Field field, Location location, double size, double scent)
+    {
+        return YOUNG_FACTORIES[species].create(field, location, size, scent);
+    }
+
+    /**
+     * Creates an entity of a species.
+     */
+    private interface Factory
+    {
+        /**
+         * Create an entity.
+         * @param field The field to put the entity in.
+         * @param location The location of the entity.
+         * @return The entity.
+         */
+        Entity create(Field field, Location location);
+    }
+
+    /**
+     * Creates the young of an animal species.
+     */
+    private interface YoungFactory
+    {
+        /**
+         * Create the young of an animal.
+         * @param field The field to put the young in.
+         * @param location The location of the young.
+         * @param size The size of the parent.
+         * @param scent The scent of the parent.
+         * @return The young.
+         */
+        Entity create(Field field, Location location, double size, double scent);
+    }
+}
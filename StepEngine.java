@@ -0,0 +1,49 @@
+import java.util.List;
+
+/**
+ * Interface StepEngine - Lets all entities of a simulation act for one step. Engines differ in how the work is
+ * scheduled, but each of them gives the same result every time it is run from the same state.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public interface StepEngine {
+
+    /**
+     * Let every entity act once.
+     * @param entities The live entities, in the order they were created. The engine may change this list.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The entities alive after the step. Newborns follow the entities that were alive before.
+     */
+    List<Entity> step(List<Entity> entities, Field field, int step, int currentTime);
+
+    /**
+     * Return statistics about the latest step, e.g. to display them to the user.
+     * @return The statistics, or an empty string if the engine has none.
+     */
+    default String getStatistics()
+    {
+        return "";
+    }
+
+    /**
+     * Return the mode the engine simulates steps in, e.g. to display it next to the step counter.
+     * @return The mode, or an empty string if the engine has only one.
+     */
+    default String getMode()
+    {
+        return "";
+    }
+
+    /**
+     * Return an engine for a fork of the simulation, see Simulator.fork. The fork and the simulation may be advanced
+     * independently, so an engine that keeps anything but statistics from one step to the next must not be shared.
+     * @return A new engine in the same state, or this engine if it can be shared.
+     */
+    default StepEngine fork()
+    {
+        return this;
+    }
+}
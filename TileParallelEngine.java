@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Callable;
+
+/**
+ * Class TileParallelEngine - Lets the entities act on several threads. The field is split into square tiles that are
+ * coloured like a checkerboard with four colours, so two tiles of the same colour are always a whole tile apart.
+ * The step runs in four phases, one per colour, and the tiles of a phase are processed at the same time. As long as
+ * no entity reaches further than half a tile, tiles of the same phase never touch the same cells.
+ * Every tile draws its random numbers from a stream derived from the step and the tile, and the newborns of a phase
+ * are handed over in tile order once the phase has finished. The result is therefore the same for the same seed, no
+ * matter how many threads there are. Steps in which an entity reaches further are simulated sequentially.
+ *
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class TileParallelEngine extends ParallelEngine {
+
+    private static final int TILE_SIZE = 32; // The width and depth of a tile. Must be at least twice the largest reach.
+    private static final int PHASES = 4; // One phase for each colour of the 2x2 checkerboard.
+
+    private final StepEngine fallback; // Used for steps in which an entity reaches further than half a tile.
+
+    /**
+     * Create an engine using one thread per processor.
+     */
+    public TileParallelEngine()
+    {
+        fallback = new SequentialEngine();
+    }
+
+    /**
+     * Create an engine using the given number of threads.
+     * @param threads The number of threads, at least one.
+     */
+    public TileParallelEngine(int threads)
+    {
+        super(threads);
+        fallback = new SequentialEngine();
+    }
+
+    /**
+     * Let every entity act once, one colour of tiles after another.
+     * @param entities The live entities, in the order they were created.
+     * @param field The field the entities live in.
+     * @param step The step that is simulated.
+     * @param currentTime The time of the day at this step.
+     * @return The surviving entities in the order they were created, followed by the newborns in tile order.
+     */
+    public List<Entity> step(List<Entity> entities, Field field, int step, int currentTime)
+    {
+        int reach = 0;
+        for (Entity entity : entities) {
+            reach = Math.max(reach, entity.getReach());
+        }
+        if (2 * reach > TILE_SIZE) {
+            return fallback.step(entities, field, step, currentTime);
+        }
+
+        // Nothing may be shared with a fork while several threads change the field.
+        field.unshare();
+        int tileRows = (field.getDepth() + TILE_SIZE - 1) / TILE_SIZE;
+        int tileColumns = (field.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        List<List<Entity>> tiles = new ArrayList<>(tileRows * tileColumns);
+        for (int tile = 0; tile < tileRows * tileColumns; tile++) {
+            tiles.add(new ArrayList<>());
+        }
+        for (ListIterator<Entity> it = entities.listIterator(); it.hasNext(); ) {
+            Entity entity = field.own(it.next());
+            it.set(entity);
+            Location location = entity.getLocation();
+            tiles.get(location.getRow() / TILE_SIZE * tileColumns + location.getCol() / TILE_SIZE).add(entity);
+        }
+
+        List<Entity> newEntities = new ArrayList<>();
+        for (int phase = 0; phase < PHASES; phase++) {
+            List<Callable<List<Entity>>> tasks = new ArrayList<>();
+            for (int tileRow = phase / 2; tileRow < tileRows; tileRow += 2) {
+                for (int tileColumn = phase % 2; tileColumn < tileColumns; tileColumn += 2) {
+                    int tile = tileRow * tileColumns + tileColumn;
+                    tasks.add(() -> actTile(tiles.get(tile), Randomizer.getStreamSeed(step, tile), currentTime));
+                }
+            }
+            // Hand the newborns over before the next phase, in the order of the tiles.
+            for (List<Entity> births : invokeAll(tasks, field)) {
+                newEntities.addAll(births);
+            }
+        }
+
+        List<Entity> survivors = new ArrayList<>(entities.size() + newEntities.size());
+        for (Entity entity : entities) {
+            if (entity.isAlive()) {
+                survivors.add(entity);
+            }
+        }
+        survivors.addAll(newEntities);
+        return survivors;
+    }
+
+    /**
+     * Let the entities of one tile act, drawing random numbers from the stream of the tile.
+     * @param tile The entities that were in the tile at the start of the step, in the order they were created.
+     * @param seed The seed of the random stream of the tile.
+     * @param currentTime The time of the day.
+     * @return The entities born in this tile.
+     */
+    private static List<Entity> actTile(List<Entity> tile, long seed, int currentTime)
+    {
+        List<Entity> newEntities = new ArrayList<>();
+        Randomizer.beginStream(seed);
+        try {
+            for (Entity entity : tile) {
+                if (entity.isAlive()) { // It may have been eaten earlier in this step.
+                    entity.act(newEntities, currentTime);
+                }
+            }
+        } finally {
+            Randomizer.endStream();
+        }
+        return newEntities;
+    }
+}
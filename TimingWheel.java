@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class TimingWheel - Schedules items to expire at a given step, so that only the items due at a step have to be
+ * looked at instead of all of them. The wheel has several levels of SLOTS slots each. The first level holds the items
+ * due within the next SLOTS steps, one slot per step; each further level covers SLOTS times as many steps per slot.
+ * Whenever the first level has gone round once, the next slot of the level above is spread over it.
+ *
+ * @param <T> The type of the items.
+ * @author Valentin Magis, Barnabas Szalai
+ * @version 2021-03-02
+ */
+public class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS; // The number of slots per level.
+    private static final int LEVELS = 4; // Items due later than SLOTS^LEVELS steps ahead wait in the last slot.
+
+    private final List<List<Timer<T>>> slots; // The slots of all levels, level by level.
+    private int now; // The latest step that has expired.
+    private int size;
+
+    /**
+     * Create an empty wheel.
+     * @param now The current step. Items can be scheduled for any later step.
+     */
+    public TimingWheel(int now)
+    {
+        this.now = now;
+        slots = new ArrayList<>(LEVELS * SLOTS);
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedule an item to expire at the given step.
+     * @param item The item.
+     * @param due The step, after the current one.
+     */
+    public void schedule(T item, int due)
+    {
+        insert(new Timer<>(item, Math.max(due, now + 1)));
+        size++;
+    }
+
+    /**
+     * Advance the wheel to the given step and collect the items due up to it.
+     * @param step The step, not before the current one.
+     * @param expired A list to receive the items, in the order they were due.
+     */
+    public void advance(int step, List<T> expired)
+    {
+        while (now < step) {
+            now++;
+            // Spread the next slot of every level whose level below has gone round once.
+            for (int level = 1; level < LEVELS && (now & ((1 << (SLOT_BITS * level)) - 1)) == 0; level++) {
+                List<Timer<T>> slot = slots.get(level * SLOTS + ((now >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+                List<Timer<T>> timers = new ArrayList<>(slot);
+                slot.clear();
+                for (Timer<T> timer : timers) {
+                    insert(timer);
+                }
+            }
+            List<Timer<T>> slot = slots.get(now & (SLOTS - 1));
+            for (int i = 0; i < slot.size(); ) {
+                Timer<T> timer = slot.get(i);
+                if (timer.due == now) {
+                    expired.add(timer.item);
+                    slot.set(i, slot.get(slot.size() - 1));
+                    slot.remove(slot.size() - 1);
+                    size--;
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of scheduled items.
+     * @return The number of items that have not expired yet.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Put a timer into the slot of the level that covers its due step.
+     * @param timer The timer, due after the current step.
+     */
+    private void insert(Timer<T> timer)
+    {
+        int level = 0;
+        while (level < LEVELS - 1 && (timer.due - now) >= (1 << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        slots.get(level * SLOTS + ((timer.due >>> (SLOT_BITS * level)) & (SLOTS - 1))).add(timer);
+    }
+
+    /**
+     * An item and the step it is due at.
+     */
+    private static class Timer<T>
+    {
+        private final T item;
+        private final int due;
+
+        /**
+         * Create a timer.
+         * @param item The item.
+         * @param due The step the item is due at.
+         */
+        Timer(T item, int due)
+        {
+            this.item = item;
+            this.due = due;
+        }
+    }
+}
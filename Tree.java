@@ -6,10 +6,11 @@ import java.util.List;
  * @author Valentin Magis, Barnabas Szalai
  * @version 2021-03-02
  */
-public class Tree extends Plant {
+public final class Tree extends Plant {
 
     private static final int MAX_AGE = PlantStats.TREE.getMaxAge();
     private static final int MAX_EATABLE_AGE = 3;
+    private static final int SEEDING_RADIUS = 3; // The tree can propagate in this radius.
     private static final int MAX_LITTER_SIZE = PlantStats.TREE.getMaxLitterSize();
 
     private final double BREEDING_PROBABILITY = PlantStats.TREE.getBreeding_Probability();
@@ -29,14 +30,22 @@ public class Tree extends Plant {
     public Tree(boolean randomAge, Field field, Location location)
     {
         super(field, location);
-        age = 0;
-        currentBreedingProbability = BREEDING_PROBABILITY;
+        initSeed();
         if (randomAge)
         {
-            age = rand.nextInt(MAX_AGE);
+            setAge(rand.nextInt(MAX_AGE));
         }
     }
 
+    /**
+     * Set the state of a new seed.
+     */
+    private void initSeed()
+    {
+        setAge(0);
+        setCurrentBreedingProbability(BREEDING_PROBABILITY);
+    }
+
     /**
      * Calls the act method in the superclass. It also calls the propagate method when the tree is still alive and
      * awake at the end of its act.
@@ -63,13 +72,52 @@ public class Tree extends Plant {
         // New seeds are put into adjacent locations.
         // Get a list of adjacent free locations.
         Field field = getField();
-        List<Location> free = field.getFreeNearbyLocations(getLocation(), 3); // The tree can propagate in a radius of 3
+        List<Location> free = field.getFreeNearbyLocations(getLocation(), SEEDING_RADIUS);
         int births = generateSeeds();
         for(int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
-            Tree seed = new Tree(false, field, loc);
-            newTrees.add(seed);
+            newTrees.add(createYoung(loc));
+        }
+    }
+
+    /**
+     * Decide where this tree wants to put new seeds.
+     * @param intent The intent to fill in.
+     * @param currentTime The current time
+     */
+    @Override
+    protected void plan(Intent intent, int currentTime)
+    {
+        if (isAwake(currentTime) && isAlive()) {
+            List<Location> free = getField().getFreeNearbyLocations(getLocation(), SEEDING_RADIUS);
+            intent.setBirths(free, generateSeeds());
+        }
+    }
+
+    /**
+     * Create a new seed of a tree, reusing a dead tree if there is any.
+     * @param location The location of the seed.
+     * @return The seed.
+     */
+    @Override
+    protected Entity createYoung(Location location)
+    {
+        Tree seed = (Tree) reuse(getField(), location);
+        if (seed == null) {
+            return new Tree(false, getField(), location);
         }
+        seed.initSeed();
+        return seed;
+    }
+
+    /**
+     * Return how far this tree can propagate within a single act.
+     * @return The largest distance in rows or columns.
+     */
+    @Override
+    protected int getReach()
+    {
+        return SEEDING_RADIUS;
     }
 
     /**
@@ -80,7 +128,7 @@ public class Tree extends Plant {
     private int generateSeeds()
     {
         int newSeeds = 0;
-        if(canBreed() && rand.nextDouble() <= currentBreedingProbability) {
+        if(canBreed() && rand.nextDouble() <= getCurrentBreedingProbability()) {
             newSeeds = rand.nextInt(PlantStats.TREE.getMaxLitterSize()) + 1;
         }
         return newSeeds;
@@ -88,11 +136,14 @@ public class Tree extends Plant {
 
 
     /**
-     * Updates the tree's nutrition value, depending on its age.
+     * Returns the tree's nutrition value at the given age.
+     * @param age The age.
+     * @return The food value.
      */
-    protected void updateFoodValue()
+    @Override
+    protected int getFoodValueAt(int age)
     {
-        foodValue = (int) Math.round(2*Math.log(age)); //log grows fast in the beginning and slower at later stages
+        return (int) Math.round(2*Math.log(age)); //log grows fast in the beginning and slower at later stages
     }
 
     /**
@@ -101,7 +152,7 @@ public class Tree extends Plant {
      */
     @Override
     public boolean isEatable() {
-        return age < MAX_EATABLE_AGE;
+        return getAge() < MAX_EATABLE_AGE;
     }
 
     /**